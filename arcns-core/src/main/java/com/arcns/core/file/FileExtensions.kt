@@ -7,6 +7,7 @@ import android.os.ParcelFileDescriptor
 import com.arcns.core.APP
 import com.arcns.core.util.keepDecimalPlaces
 import com.arcns.xfile.FileUtil
+import okio.Sink
 import okio.Source
 import java.io.*
 import java.text.SimpleDateFormat
@@ -309,6 +310,7 @@ fun OutputStream.tryClose() = FileUtil.tryClose(this)
 fun InputStream.tryClose() = FileUtil.tryClose(this)
 fun ParcelFileDescriptor.tryClose() = FileUtil.tryClose(this)
 fun Source.tryClose() = FileUtil.tryClose(this)
+fun Sink.tryClose() = FileUtil.tryClose(this)
 fun BufferedWriter.tryClose() = FileUtil.tryClose(this)
 fun BufferedReader.tryClose() = FileUtil.tryClose(this)
 
@@ -0,0 +1,214 @@
+package com.arcns.core.map
+
+import android.location.Location
+import kotlin.math.cos
+import kotlin.math.sqrt
+
+// 每度纬度对应的弧长（m）
+private const val METERS_PER_DEGREE = 6371008.8 * Math.PI / 180
+
+/**
+ * 定位数据（在定位处理流程中复用，处理器可直接修改其中的数据）
+ */
+class MapLocationFix {
+    var latitude: Double = 0.0
+    var longitude: Double = 0.0
+    var time: Long = 0// 定位时间（毫秒）
+    var accuracy: Float = Float.NaN// 水平精度（m，NaN为未知）
+    var speed: Float = Float.NaN// 速度（m/s，NaN为未知）
+
+    /**
+     * 从坐标中读取（若extraData为Location，则同时读取时间、精度与速度，否则时间为当前时间）
+     */
+    fun set(position: MapPosition) {
+        latitude = position.latitude
+        longitude = position.longitude
+        val location = position.extraData as? Location
+        if (location != null) {
+            time = location.time
+            accuracy = if (location.hasAccuracy()) location.accuracy else Float.NaN
+            speed = if (location.hasSpeed()) location.speed else Float.NaN
+        } else {
+            time = System.currentTimeMillis()
+            accuracy = Float.NaN
+            speed = Float.NaN
+        }
+    }
+
+    /**
+     * 设置数据（用于离线处理记录的定位数据）
+     */
+    fun set(
+        latitude: Double,
+        longitude: Double,
+        time: Long,
+        accuracy: Float = Float.NaN,
+        speed: Float = Float.NaN
+    ) {
+        this.latitude = latitude
+        this.longitude = longitude
+        this.time = time
+        this.accuracy = accuracy
+        this.speed = speed
+    }
+}
+
+/**
+ * 定位处理器（MapLocator按顺序调用，返回false表示丢弃该定位）
+ */
+interface MapLocationProcessor {
+
+    /**
+     * 处理定位数据
+     */
+    fun process(fix: MapLocationFix): Boolean
+
+    /**
+     * 重置（定位器停止时调用）
+     */
+    fun reset()
+}
+
+/**
+ * 异常定位过滤（按精度、与上一个有效定位之间的速度与加速度判断）
+ */
+class MapLocationOutlierGate(
+    var maxAccuracy: Float = 100f,// 允许的最大精度值（m，精度未知时不判断）
+    var maxSpeed: Double = 70.0,// 允许的最大速度（m/s）
+    var maxAcceleration: Double = 10.0// 允许的最大加速度（m/s²）
+) : MapLocationProcessor {
+    private var lastLatitude = 0.0
+    private var lastLongitude = 0.0
+    private var lastTime = 0L
+    private var lastSpeed = 0.0
+    private var hasLast = false
+
+    // 是否已有可信的上一个速度（未确定前不判断加速度，避免从运动中开始定位时被误判）
+    private var hasSpeed = false
+
+    override fun process(fix: MapLocationFix): Boolean {
+        if (fix.latitude == 0.0 && fix.longitude == 0.0) return false
+        if (!fix.accuracy.isNaN() && fix.accuracy > maxAccuracy) return false
+        if (hasLast) {
+            val seconds = (fix.time - lastTime) / 1000.0
+            if (seconds > 0) {
+                val scale = cos(Math.toRadians(lastLatitude)) * METERS_PER_DEGREE
+                val dx = (fix.longitude - lastLongitude) * scale
+                val dy = (fix.latitude - lastLatitude) * METERS_PER_DEGREE
+                val speed = sqrt(dx * dx + dy * dy) / seconds
+                if (speed > maxSpeed) return false
+                if (hasSpeed && Math.abs(speed - lastSpeed) / seconds > maxAcceleration) return false
+                lastSpeed = speed
+                hasSpeed = true
+            }
+        } else if (!fix.speed.isNaN()) {
+            // 第一个定位带有速度时，以其作为上一个速度
+            lastSpeed = fix.speed.toDouble()
+            hasSpeed = true
+        }
+        lastLatitude = fix.latitude
+        lastLongitude = fix.longitude
+        lastTime = fix.time
+        hasLast = true
+        return true
+    }
+
+    override fun reset() {
+        hasLast = false
+        hasSpeed = false
+        lastSpeed = 0.0
+    }
+}
+
+/**
+ * 匀速模型的卡尔曼滤波平滑
+ * 在以第一个定位为原点的局部平面中，东西与南北方向分别使用[位置, 速度]两个状态进行滤波，
+ * 观测噪声由定位精度决定（精度越差，权重越低），每次处理不产生对象分配
+ */
+class MapLocationKalmanFilter(
+    var accelerationNoise: Double = 3.0,// 过程噪声（加速度标准差，m/s²，越大越跟随原始定位）
+    var defaultAccuracy: Float = 15f,// 精度未知时使用的精度（m）
+    var resetInterval: Long = 60_000// 与上一个定位的间隔超过该值（毫秒）时重新开始滤波
+) : MapLocationProcessor {
+    private val east = KalmanAxis()
+    private val north = KalmanAxis()
+
+    // 局部平面原点
+    private var originLatitude = 0.0
+    private var originLongitude = 0.0
+    private var scale = 0.0
+    private var lastTime = 0L
+    private var isInitialized = false
+
+    override fun process(fix: MapLocationFix): Boolean {
+        val accuracy = if (fix.accuracy.isNaN() || fix.accuracy <= 0f) defaultAccuracy else fix.accuracy
+        val variance = accuracy.toDouble() * accuracy
+        if (!isInitialized || fix.time - lastTime > resetInterval) {
+            originLatitude = fix.latitude
+            originLongitude = fix.longitude
+            scale = cos(Math.toRadians(originLatitude)) * METERS_PER_DEGREE
+            east.reset(0.0, variance)
+            north.reset(0.0, variance)
+            lastTime = fix.time
+            isInitialized = true
+            return true
+        }
+        val seconds = (fix.time - lastTime) / 1000.0
+        if (seconds > 0) {
+            val noise = accelerationNoise * accelerationNoise
+            east.predict(seconds, noise)
+            north.predict(seconds, noise)
+            lastTime = fix.time
+        }
+        east.update((fix.longitude - originLongitude) * scale, variance)
+        north.update((fix.latitude - originLatitude) * METERS_PER_DEGREE, variance)
+        fix.longitude = originLongitude + east.position / scale
+        fix.latitude = originLatitude + north.position / METERS_PER_DEGREE
+        fix.accuracy = sqrt(maxOf(east.positionVariance, north.positionVariance)).toFloat()
+        return true
+    }
+
+    override fun reset() {
+        isInitialized = false
+    }
+
+    /**
+     * 单个方向的滤波状态（位置、速度及其协方差）
+     */
+    private class KalmanAxis {
+        var position = 0.0
+        var velocity = 0.0
+        var positionVariance = 0.0
+        var covariance = 0.0
+        var velocityVariance = 0.0
+
+        fun reset(position: Double, variance: Double) {
+            this.position = position
+            velocity = 0.0
+            positionVariance = variance
+            covariance = 0.0
+            // 初始速度未知，使用较大的方差
+            velocityVariance = 100.0
+        }
+
+        fun predict(dt: Double, noise: Double) {
+            val dt2 = dt * dt
+            position += velocity * dt
+            positionVariance += dt * (2 * covariance + dt * velocityVariance) + noise * dt2 * dt2 / 4
+            covariance += dt * velocityVariance + noise * dt2 * dt / 2
+            velocityVariance += noise * dt2
+        }
+
+        fun update(measurement: Double, variance: Double) {
+            val s = positionVariance + variance
+            val positionGain = positionVariance / s
+            val velocityGain = covariance / s
+            val residual = measurement - position
+            position += positionGain * residual
+            velocity += velocityGain * residual
+            velocityVariance -= velocityGain * covariance
+            positionVariance *= 1 - positionGain
+            covariance *= 1 - positionGain
+        }
+    }
+}
@@ -29,6 +29,12 @@ abstract class MapLocator(
     // 轨迹记录器
     val trackRecorders = ArrayList<MapTrackRecorder>()
 
+    // 定位处理流程（按添加顺序处理，处理后的坐标再回调给onLocationChanged与轨迹记录器）
+    val locationProcessors = ArrayList<MapLocationProcessor>()
+
+    // 定位处理流程复用的定位数据
+    private val locationFix = MapLocationFix()
+
     // 自定义定位回调
     var onLocationChanged: ((MapPosition) -> Unit)? = null
 
@@ -87,10 +93,29 @@ abstract class MapLocator(
         trackRecorders.remove(recorder)
     }
 
+    /**
+     * 添加定位处理器
+     */
+    open fun addLocationProcessor(processor: MapLocationProcessor) {
+        locationProcessors.add(processor)
+    }
+
+    /**
+     * 删除定位处理器
+     */
+    open fun removeLocationProcessor(processor: MapLocationProcessor) {
+        locationProcessors.remove(processor)
+    }
+
     /**
      * 地图定时回调器
      */
     open fun onLocatorLocationCallback(position: MapPosition) {
+        if (!processLocation(position)) {
+            // 被丢弃的定位不回调，但定位器计时照常累计
+            locatorTotalTime += getLocatorInterval()
+            return
+        }
         onLocationChanged?.invoke(position)
         trackRecorders.forEach {
             it.addTrackPositionOnRecorderInterval(position, locatorTotalTime, getLocatorInterval())
@@ -98,6 +123,20 @@ abstract class MapLocator(
         locatorTotalTime += getLocatorInterval()
     }
 
+    /**
+     * 按顺序执行定位处理流程，并将处理后的经纬度写回坐标，返回false表示定位被丢弃
+     */
+    private fun processLocation(position: MapPosition): Boolean {
+        if (locationProcessors.isEmpty()) return true
+        locationFix.set(position)
+        for (index in locationProcessors.indices) {
+            if (!locationProcessors[index].process(locationFix)) return false
+        }
+        position.latitude = locationFix.latitude
+        position.longitude = locationFix.longitude
+        return true
+    }
+
     /**
      * 定位器是否开启
      */
@@ -108,6 +147,7 @@ abstract class MapLocator(
      */
     open fun stop() {
         locatorTotalTime = 0
+        locationProcessors.forEach { it.reset() }
     }
 
     /**
@@ -1,18 +1,12 @@
 package com.arcns.core.map
 
-import kotlin.math.atan2
-import kotlin.math.cos
-import kotlin.math.sin
-import kotlin.math.sqrt
-
-
 /**
  * 通用坐标
  */
 open class MapPosition(
-    var id: String? = null,
-    var latitude: Double,
-    var longitude: Double,
+    id: String? = null,
+    latitude: Double,
+    longitude: Double,
     var type: MapPositionType,
     var extraData: Any? = null
 ) {
@@ -24,41 +18,67 @@ open class MapPosition(
         type = type
     )
 
-    private val pi = 3.1415926535897932384626
-    val toGCJ02: MapPosition
-        get() {
-            if (type == MapPositionType.GCJ02) {
-                return this
-            }
-            val x = longitude - 0.0065
-            val y = latitude - 0.006
-            val z =
-                sqrt(x * x + y * y) - 0.00002 * sin(y * pi)
-            val theta =
-                Math.atan2(y, x) - 0.000003 * cos(x * pi)
-            return MapPosition(
-                latitude = z * sin(theta),
-                longitude = z * cos(theta),
-                type = MapPositionType.GCJ02
-            )
+    var id: String? = id
+        set(value) {
+            val oldID = field
+            field = value
+            if (oldID == value) return
+            val groups = indexGroups ?: return
+            for (index in groups.indices) groups[index].onMapPositionIDChanged(this, oldID)
+        }
+
+    var latitude: Double = latitude
+        set(value) {
+            val oldLatitude = field
+            field = value
+            if (oldLatitude == value) return
+            val groups = indexGroups ?: return
+            for (index in groups.indices) groups[index].onMapPositionMoved(this, oldLatitude, longitude)
+        }
+
+    var longitude: Double = longitude
+        set(value) {
+            val oldLongitude = field
+            field = value
+            if (oldLongitude == value) return
+            val groups = indexGroups ?: return
+            for (index in groups.indices) groups[index].onMapPositionMoved(this, latitude, oldLongitude)
         }
+
+    // 已将该坐标加入索引的坐标组（id或经纬度变化时通知坐标组更新索引）
+    private var indexGroups: ArrayList<MapPositionGroup>? = null
+
+    internal fun addIndexGroup(group: MapPositionGroup) {
+        val groups = indexGroups ?: ArrayList<MapPositionGroup>(1).also { indexGroups = it }
+        if (!groups.contains(group)) groups.add(group)
+    }
+
+    internal fun removeIndexGroup(group: MapPositionGroup) {
+        indexGroups?.remove(group)
+    }
+
+    val toGCJ02: MapPosition
+        get() = convertTo(MapPositionType.GCJ02)
     val toBD09LL: MapPosition
-        get() {
-            if (type == MapPositionType.BD09LL) {
-                return this
-            }
-            val x = longitude
-            val y = latitude
-            val z =
-                sqrt(x * x + y * y) + 0.00002 * sin(y * pi)
-            val theta =
-                atan2(y, x) + 0.000003 * cos(x * pi)
-            return MapPosition(
-                latitude = z * sin(theta) + 0.006,
-                longitude = z * cos(theta) + 0.0065,
-                type = MapPositionType.BD09LL
-            )
+        get() = convertTo(MapPositionType.BD09LL)
+    val toWGS84: MapPosition
+        get() = convertTo(MapPositionType.WGS84)
+
+    /**
+     * 转换为指定类型的坐标（类型相同时返回自身，批量转换请使用MapPositionConverter）
+     */
+    fun convertTo(type: MapPositionType): MapPosition {
+        if (this.type == type) {
+            return this
         }
+        val out = DoubleArray(2)
+        MapPositionConverter.convert(latitude, longitude, this.type, type, out)
+        return MapPosition(
+            latitude = out[0],
+            longitude = out[1],
+            type = type
+        )
+    }
 }
 
 /**
@@ -69,6 +89,9 @@ enum class MapPositionType {
     BD09LL,
 
     // GCJ02国测火星坐标
-    GCJ02
+    GCJ02,
+
+    // WGS84卫星定位坐标
+    WGS84
 }
 
@@ -0,0 +1,201 @@
+package com.arcns.core.map
+
+import kotlin.math.abs
+import kotlin.math.atan2
+import kotlin.math.cos
+import kotlin.math.sin
+import kotlin.math.sqrt
+
+/**
+ * 坐标转换（WGS84、GCJ02、BD09LL互转）
+ * 除单个坐标外，还支持对DoubleArray批量原地转换，转换过程中不产生对象分配；
+ * GCJ02转WGS84使用迭代逼近，误差小于1e-9度（约0.1mm）
+ */
+object MapPositionConverter {
+    // 克拉索夫斯基椭球长半轴
+    private const val A = 6378245.0
+
+    // 克拉索夫斯基椭球第一偏心率的平方
+    private const val EE = 0.00669342162296594323
+
+    // 百度坐标偏移使用的常量
+    private const val X_PI = Math.PI * 3000.0 / 180.0
+
+    // GCJ02转WGS84迭代的收敛阈值（度）
+    private const val INVERSE_THRESHOLD = 1e-9
+
+    // GCJ02转WGS84的最大迭代次数
+    private const val INVERSE_MAX_ITERATIONS = 10
+
+    /**
+     * 转换单个坐标，结果写入out（out[outOffset]为纬度，out[outOffset + 1]为经度）
+     */
+    fun convert(
+        latitude: Double,
+        longitude: Double,
+        from: MapPositionType,
+        to: MapPositionType,
+        out: DoubleArray,
+        outOffset: Int = 0
+    ) {
+        out[outOffset] = latitude
+        out[outOffset + 1] = longitude
+        convertAt(out, outOffset, out, outOffset + 1, from, to)
+    }
+
+    /**
+     * 批量原地转换交错存储的坐标（纬度, 经度, 纬度, 经度...），offset与count以坐标为单位
+     */
+    fun convert(
+        coordinates: DoubleArray,
+        from: MapPositionType,
+        to: MapPositionType,
+        offset: Int = 0,
+        count: Int = coordinates.size / 2 - offset
+    ) {
+        if (from == to) return
+        for (index in offset until offset + count) {
+            convertAt(coordinates, index * 2, coordinates, index * 2 + 1, from, to)
+        }
+    }
+
+    /**
+     * 批量原地转换按列存储的坐标（如MapTrackChunk中的纬度列与经度列）
+     */
+    fun convert(
+        latitudes: DoubleArray,
+        longitudes: DoubleArray,
+        from: MapPositionType,
+        to: MapPositionType,
+        offset: Int = 0,
+        count: Int = latitudes.size - offset
+    ) {
+        if (from == to) return
+        for (index in offset until offset + count) {
+            convertAt(latitudes, index, longitudes, index, from, to)
+        }
+    }
+
+    /**
+     * 坐标是否在中国境外（境外的WGS84与GCJ02相同）
+     */
+    fun isOutOfChina(latitude: Double, longitude: Double): Boolean =
+        longitude < 72.004 || longitude > 137.8347 || latitude < 0.8293 || latitude > 55.8271
+
+    /**
+     * 原地转换数组中指定位置的坐标（先转换为GCJ02，再转换为目标类型）
+     */
+    private fun convertAt(
+        latitudes: DoubleArray,
+        latitudeIndex: Int,
+        longitudes: DoubleArray,
+        longitudeIndex: Int,
+        from: MapPositionType,
+        to: MapPositionType
+    ) {
+        if (from == to) return
+        when (from) {
+            MapPositionType.WGS84 -> wgs84ToGcj02(latitudes, latitudeIndex, longitudes, longitudeIndex)
+            MapPositionType.BD09LL -> bd09ToGcj02(latitudes, latitudeIndex, longitudes, longitudeIndex)
+            MapPositionType.GCJ02 -> Unit
+        }
+        when (to) {
+            MapPositionType.WGS84 -> gcj02ToWgs84(latitudes, latitudeIndex, longitudes, longitudeIndex)
+            MapPositionType.BD09LL -> gcj02ToBd09(latitudes, latitudeIndex, longitudes, longitudeIndex)
+            MapPositionType.GCJ02 -> Unit
+        }
+    }
+
+    private fun wgs84ToGcj02(
+        latitudes: DoubleArray,
+        latitudeIndex: Int,
+        longitudes: DoubleArray,
+        longitudeIndex: Int
+    ) {
+        val latitude = latitudes[latitudeIndex]
+        val longitude = longitudes[longitudeIndex]
+        if (isOutOfChina(latitude, longitude)) return
+        val x = longitude - 105.0
+        val y = latitude - 35.0
+        val radLatitude = latitude / 180.0 * Math.PI
+        val sinLatitude = sin(radLatitude)
+        val magic = 1 - EE * sinLatitude * sinLatitude
+        val sqrtMagic = sqrt(magic)
+        latitudes[latitudeIndex] =
+            latitude + transformLatitude(x, y) * 180.0 / ((A * (1 - EE)) / (magic * sqrtMagic) * Math.PI)
+        longitudes[longitudeIndex] =
+            longitude + transformLongitude(x, y) * 180.0 / (A / sqrtMagic * cos(radLatitude) * Math.PI)
+    }
+
+    /**
+     * GCJ02转WGS84（以GCJ02坐标为初值，反复用正向偏移修正，直到正向转换结果与原坐标的差小于阈值）
+     */
+    private fun gcj02ToWgs84(
+        latitudes: DoubleArray,
+        latitudeIndex: Int,
+        longitudes: DoubleArray,
+        longitudeIndex: Int
+    ) {
+        val latitude = latitudes[latitudeIndex]
+        val longitude = longitudes[longitudeIndex]
+        if (isOutOfChina(latitude, longitude)) return
+        var wgsLatitude = latitude
+        var wgsLongitude = longitude
+        for (iteration in 0 until INVERSE_MAX_ITERATIONS) {
+            latitudes[latitudeIndex] = wgsLatitude
+            longitudes[longitudeIndex] = wgsLongitude
+            wgs84ToGcj02(latitudes, latitudeIndex, longitudes, longitudeIndex)
+            val deltaLatitude = latitudes[latitudeIndex] - latitude
+            val deltaLongitude = longitudes[longitudeIndex] - longitude
+            wgsLatitude -= deltaLatitude
+            wgsLongitude -= deltaLongitude
+            if (abs(deltaLatitude) < INVERSE_THRESHOLD && abs(deltaLongitude) < INVERSE_THRESHOLD) break
+        }
+        latitudes[latitudeIndex] = wgsLatitude
+        longitudes[longitudeIndex] = wgsLongitude
+    }
+
+    private fun gcj02ToBd09(
+        latitudes: DoubleArray,
+        latitudeIndex: Int,
+        longitudes: DoubleArray,
+        longitudeIndex: Int
+    ) {
+        val x = longitudes[longitudeIndex]
+        val y = latitudes[latitudeIndex]
+        val z = sqrt(x * x + y * y) + 0.00002 * sin(y * X_PI)
+        val theta = atan2(y, x) + 0.000003 * cos(x * X_PI)
+        latitudes[latitudeIndex] = z * sin(theta) + 0.006
+        longitudes[longitudeIndex] = z * cos(theta) + 0.0065
+    }
+
+    private fun bd09ToGcj02(
+        latitudes: DoubleArray,
+        latitudeIndex: Int,
+        longitudes: DoubleArray,
+        longitudeIndex: Int
+    ) {
+        val x = longitudes[longitudeIndex] - 0.0065
+        val y = latitudes[latitudeIndex] - 0.006
+        val z = sqrt(x * x + y * y) - 0.00002 * sin(y * X_PI)
+        val theta = atan2(y, x) - 0.000003 * cos(x * X_PI)
+        latitudes[latitudeIndex] = z * sin(theta)
+        longitudes[longitudeIndex] = z * cos(theta)
+    }
+
+    private fun transformLatitude(x: Double, y: Double): Double {
+        var result = -100.0 + 2.0 * x + 3.0 * y + 0.2 * y * y + 0.1 * x * y + 0.2 * sqrt(abs(x))
+        result += (20.0 * sin(6.0 * x * Math.PI) + 20.0 * sin(2.0 * x * Math.PI)) * 2.0 / 3.0
+        result += (20.0 * sin(y * Math.PI) + 40.0 * sin(y / 3.0 * Math.PI)) * 2.0 / 3.0
+        result += (160.0 * sin(y / 12.0 * Math.PI) + 320 * sin(y * Math.PI / 30.0)) * 2.0 / 3.0
+        return result
+    }
+
+    private fun transformLongitude(x: Double, y: Double): Double {
+        var result = 300.0 + x + 2.0 * y + 0.1 * x * x + 0.1 * x * y + 0.1 * sqrt(abs(x))
+        result += (20.0 * sin(6.0 * x * Math.PI) + 20.0 * sin(2.0 * x * Math.PI)) * 2.0 / 3.0
+        result += (20.0 * sin(x * Math.PI) + 40.0 * sin(x / 3.0 * Math.PI)) * 2.0 / 3.0
+        result += (150.0 * sin(x / 12.0 * Math.PI) + 300.0 * sin(x / 30.0 * Math.PI)) * 2.0 / 3.0
+        return result
+    }
+}
@@ -0,0 +1,106 @@
+package com.arcns.core.map
+
+import kotlin.math.floor
+
+/**
+ * 坐标网格索引（按固定大小的经纬度网格对坐标分桶，类似固定精度的geohash）
+ * 范围查询只访问与范围相交的网格，结果会按坐标的实际经纬度精确过滤
+ */
+class MapPositionGridIndex(
+    val cellSize: Double// 网格大小（度）
+) {
+    // 网格（key由网格的行号与列号组成）
+    private val cells = HashMap<Long, ArrayList<MapPosition>>()
+
+    // 坐标数量
+    var size: Int = 0
+        private set
+
+    /**
+     * 添加坐标
+     */
+    fun add(position: MapPosition) {
+        val key = cellKey(cellOf(position.latitude), cellOf(position.longitude))
+        (cells[key] ?: ArrayList<MapPosition>().also { cells[key] = it }).add(position)
+        size++
+    }
+
+    /**
+     * 删除坐标（latitude与longitude为坐标添加时所在的经纬度），返回是否已删除
+     */
+    fun remove(position: MapPosition, latitude: Double, longitude: Double): Boolean {
+        val key = cellKey(cellOf(latitude), cellOf(longitude))
+        val cell = cells[key] ?: return false
+        for (index in cell.indices) {
+            if (cell[index] === position) {
+                // 与最后一个交换后删除，避免移动数组
+                cell[index] = cell[cell.size - 1]
+                cell.removeAt(cell.size - 1)
+                if (cell.isEmpty()) cells.remove(key)
+                size--
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * 清空
+     */
+    fun clear() {
+        cells.clear()
+        size = 0
+    }
+
+    /**
+     * 查询范围内的坐标（包含边界），结果追加到result并返回
+     */
+    fun query(
+        minLatitude: Double,
+        minLongitude: Double,
+        maxLatitude: Double,
+        maxLongitude: Double,
+        result: ArrayList<MapPosition> = ArrayList()
+    ): ArrayList<MapPosition> {
+        if (minLatitude > maxLatitude || minLongitude > maxLongitude || cells.isEmpty()) return result
+        val minRow = cellOf(minLatitude)
+        val maxRow = cellOf(maxLatitude)
+        val minColumn = cellOf(minLongitude)
+        val maxColumn = cellOf(maxLongitude)
+        val cellCount = (maxRow - minRow + 1) * (maxColumn - minColumn + 1)
+        if (cellCount > cells.size) {
+            // 范围覆盖的网格比已有的网格还多时，直接遍历已有的网格
+            cells.values.forEach {
+                collect(it, minLatitude, minLongitude, maxLatitude, maxLongitude, result)
+            }
+            return result
+        }
+        for (row in minRow..maxRow) {
+            for (column in minColumn..maxColumn) {
+                val cell = cells[cellKey(row, column)] ?: continue
+                collect(cell, minLatitude, minLongitude, maxLatitude, maxLongitude, result)
+            }
+        }
+        return result
+    }
+
+    private fun collect(
+        cell: ArrayList<MapPosition>,
+        minLatitude: Double,
+        minLongitude: Double,
+        maxLatitude: Double,
+        maxLongitude: Double,
+        result: ArrayList<MapPosition>
+    ) {
+        for (index in cell.indices) {
+            val position = cell[index]
+            if (position.latitude in minLatitude..maxLatitude && position.longitude in minLongitude..maxLongitude) {
+                result.add(position)
+            }
+        }
+    }
+
+    private fun cellOf(value: Double): Long = floor(value / cellSize).toLong()
+
+    private fun cellKey(row: Long, column: Long): Long = (row shl 32) xor (column and 0xFFFFFFFFL)
+}
@@ -1,11 +1,13 @@
 package com.arcns.core.map
 
+import android.location.Location
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import com.arcns.core.util.fastValue
 import com.arcns.core.util.isMainThread
 import java.util.*
 import kotlin.collections.ArrayList
+import kotlin.math.cos
 
 
 typealias ApplyCustomOptions = ((group: MapPositionGroup?, options: Any, position: MapPosition?) -> Unit)
@@ -29,6 +31,28 @@ class MapPositionGroup {
      */
     var applyCustomOptions: ApplyCustomOptions? = null
 
+    // 索引对应的列表与数量（使用时按需构建，列表被替换或数量变化时重建）
+    private var indexList: ArrayList<MapPosition>? = null
+    private var indexSize = 0
+
+    // 列表中的地图点（已加入索引的地图点，其id或经纬度变化时会通知坐标组更新索引）
+    private val members = HashSet<MapPosition>()
+
+    // id索引（id相同时保留第一个地图点）
+    private val idIndex = HashMap<String, MapPosition>()
+    private var isIDIndexValid = false
+
+    /**
+     * 空间索引的网格大小（度），为空时不使用空间索引，范围查询将遍历全部地图点
+     */
+    var spatialIndexCellSize: Double? = null
+        set(value) {
+            field = value
+            gridIndex = null
+            indexList = null
+        }
+    private var gridIndex: MapPositionGridIndex? = null
+
     /**
      * 根据ExtraData查找地图点
      */
@@ -52,18 +76,184 @@ class MapPositionGroup {
      * 根据id查找地图点
      */
     fun findMapPositionByID(id: String): MapPosition? {
+        ensureIndex()
+        return ensureIDIndex()[id]
+    }
+
+    /**
+     * 根据id判断组合中是否包含地图点
+     */
+    fun containMapPositionID(id: String): Boolean = findMapPositionByID(id) != null
+
+    /**
+     * 查找经纬度范围内的地图点（包含边界，经纬度需与地图点的坐标类型一致），结果追加到result并返回
+     */
+    fun findMapPositionsInBounds(
+        minLatitude: Double,
+        minLongitude: Double,
+        maxLatitude: Double,
+        maxLongitude: Double,
+        result: ArrayList<MapPosition> = ArrayList()
+    ): ArrayList<MapPosition> {
+        ensureIndex()
+        val gridIndex = gridIndex
+        if (gridIndex != null) {
+            return gridIndex.query(minLatitude, minLongitude, maxLatitude, maxLongitude, result)
+        }
         mapPositions.forEach {
-            if (it.id == id) {
-                return it
+            if (it.latitude in minLatitude..maxLatitude && it.longitude in minLongitude..maxLongitude) {
+                result.add(it)
             }
         }
-        return null
+        return result
     }
 
     /**
-     * 根据id判断组合中是否包含地图点
+     * 查找与指定坐标距离不超过radius（m）的地图点，结果追加到result并返回
      */
-    fun containMapPositionID(id: String): Boolean = findMapPositionByID(id) != null
+    fun findMapPositionsInRadius(
+        latitude: Double,
+        longitude: Double,
+        radius: Double,
+        result: ArrayList<MapPosition> = ArrayList()
+    ): ArrayList<MapPosition> {
+        // 先按外接矩形筛选，再计算实际距离
+        val latitudeRadius = radius / METERS_PER_LATITUDE_DEGREE
+        val longitudeRadius =
+            latitudeRadius / cos(Math.toRadians(latitude)).coerceAtLeast(0.000001)
+        val start = result.size
+        findMapPositionsInBounds(
+            latitude - latitudeRadius,
+            longitude - longitudeRadius,
+            latitude + latitudeRadius,
+            longitude + longitudeRadius,
+            result
+        )
+        val distance = FloatArray(1)
+        var count = start
+        for (index in start until result.size) {
+            val position = result[index]
+            Location.distanceBetween(latitude, longitude, position.latitude, position.longitude, distance)
+            if (distance[0] <= radius) {
+                result[count++] = position
+            }
+        }
+        while (result.size > count) {
+            result.removeAt(result.size - 1)
+        }
+        return result
+    }
+
+    /**
+     * 使索引失效（直接修改了mapPositions列表后调用，下次查找时重建索引；通过坐标组修改列表或修改地图点的id与经纬度时无需调用）
+     */
+    fun invalidateIndex() {
+        indexList = null
+    }
+
+    /**
+     * 索引是否与列表一致
+     */
+    private fun isIndexValid(list: ArrayList<MapPosition>?, size: Int = list?.size ?: 0): Boolean =
+        list != null && indexList === list && indexSize == size
+
+    /**
+     * 确保索引与当前列表一致（不一致时重建地图点集合与空间索引，id索引在查找时重建）
+     */
+    private fun ensureIndex() {
+        val list = mapPositions
+        if (isIndexValid(list)) return
+        members.forEach { it.removeIndexGroup(this) }
+        members.clear()
+        list.forEach {
+            members.add(it)
+            it.addIndexGroup(this)
+        }
+        val cellSize = spatialIndexCellSize
+        if (cellSize != null) {
+            val gridIndex = gridIndex ?: MapPositionGridIndex(cellSize).also { gridIndex = it }
+            gridIndex.clear()
+            list.forEach { gridIndex.add(it) }
+        }
+        isIDIndexValid = false
+        indexList = list
+        indexSize = list.size
+    }
+
+    /**
+     * 返回id索引（需先调用ensureIndex，id相同时保留第一个地图点，与按顺序查找的结果一致）
+     */
+    private fun ensureIDIndex(): HashMap<String, MapPosition> {
+        if (isIDIndexValid) return idIndex
+        idIndex.clear()
+        mapPositions.forEach {
+            val id = it.id ?: return@forEach
+            if (!idIndex.containsKey(id)) {
+                idIndex[id] = it
+            }
+        }
+        isIDIndexValid = true
+        return idIndex
+    }
+
+    /**
+     * 添加地图点后同步更新索引（需在添加前调用ensureIndex）
+     */
+    private fun onMapPositionAdded(list: ArrayList<MapPosition>, position: MapPosition) {
+        if (!isIndexValid(list, list.size - 1)) return
+        members.add(position)
+        position.addIndexGroup(this)
+        gridIndex?.add(position)
+        if (isIDIndexValid) {
+            position.id?.let {
+                if (!idIndex.containsKey(it)) {
+                    idIndex[it] = position
+                }
+            }
+        }
+        indexSize = list.size
+    }
+
+    /**
+     * 删除地图点后同步更新索引（需在删除前调用ensureIndex）
+     */
+    private fun onMapPositionRemoved(list: ArrayList<MapPosition>, position: MapPosition) {
+        if (!isIndexValid(list, list.size + 1)) return
+        members.remove(position)
+        position.removeIndexGroup(this)
+        gridIndex?.remove(position, position.latitude, position.longitude)
+        val id = position.id
+        // 删除的地图点是该id的第一个地图点时，重新查找相同id的地图点
+        if (isIDIndexValid && id != null && idIndex[id] === position) isIDIndexValid = false
+        indexSize = list.size
+    }
+
+    /**
+     * 地图点的id已修改（由MapPosition回调）
+     */
+    internal fun onMapPositionIDChanged(position: MapPosition, oldID: String?) {
+        if (!isIDIndexValid || !isIndexValid(_mapPositions.value)) return
+        val id = position.id
+        if ((oldID != null && idIndex[oldID] === position) || (id != null && idIndex.containsKey(id))) {
+            // 可能影响相同id的地图点的先后顺序，查找时重建id索引
+            isIDIndexValid = false
+            return
+        }
+        if (id != null) idIndex[id] = position
+    }
+
+    /**
+     * 地图点的经纬度已修改（由MapPosition回调，latitude与longitude为修改前的经纬度）
+     */
+    internal fun onMapPositionMoved(position: MapPosition, latitude: Double, longitude: Double) {
+        val gridIndex = gridIndex ?: return
+        if (!isIndexValid(_mapPositions.value)) return
+        if (gridIndex.remove(position, latitude, longitude)) {
+            gridIndex.add(position)
+        } else {
+            invalidateIndex()
+        }
+    }
 
     /**
      * 设置地图组
@@ -84,6 +274,7 @@ class MapPositionGroup {
      */
     fun setMapPositions(mapPositions: ArrayList<MapPosition>?) {
         _mapPositions.fastValue = mapPositions ?: arrayListOf()
+        invalidateIndex()
     }
 
     /**
@@ -139,10 +330,12 @@ class MapPositionGroup {
      * 添加地图点
      */
     fun addMapPosition(position: MapPosition): MapPosition? {
+        ensureIndex()
         _mapPositions.fastValue =
             _mapPositions.value?.apply {
-                if (!contains(position)) {
+                if (!members.contains(position)) {
                     add(position)
+                    onMapPositionAdded(this, position)
                     return position
                 }
             }
@@ -158,10 +351,14 @@ class MapPositionGroup {
      * 删除指定的地图点，注意如果不传入值，则默认会删除最后一个添加的地图点
      */
     fun removeMapPosition(position: MapPosition? = _mapPositions.value?.lastOrNull()): MapPosition? {
+        if (position == null) return null
+        ensureIndex()
         _mapPositions.fastValue =
             _mapPositions.value?.apply {
-                if (contains(position)) {
-                    remove(position)
+                if (members.contains(position)) {
+                    // 删除最后一个地图点时无需查找
+                    if (lastOrNull() === position) removeAt(size - 1) else remove(position)
+                    onMapPositionRemoved(this, position)
                     return position
                 }
             }
@@ -175,19 +372,18 @@ class MapPositionGroup {
     fun removeMapPosition(id: String?): MapPosition? {
         _mapPositions.fastValue =
             _mapPositions.value?.apply {
-                var removeItem: MapPosition? = null
-                run removeByID@{
-                    forEach {
-                        if (it.id == id) {
-                            removeItem = it
-                            remove(it)
-                            return@removeByID
-                        }
-                    }
-                }
+                val removeItem =
+                    (if (id != null) findMapPositionByID(id) else firstOrNull { it.id == null })
+                        ?: return null
+                ensureIndex()
+                remove(removeItem)
+                onMapPositionRemoved(this, removeItem)
                 return removeItem
             }
 
         return null
     }
-}
\ No newline at end of file
+}
+
+// 每度纬度对应的弧长（m）
+private const val METERS_PER_LATITUDE_DEGREE = 6371008.8 * Math.PI / 180
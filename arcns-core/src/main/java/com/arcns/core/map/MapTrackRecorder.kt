@@ -3,8 +3,8 @@ package com.arcns.core.map
 import android.location.Location
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
+import com.arcns.core.APP
 import com.arcns.core.util.Event
-import com.arcns.core.util.LOG
 
 /**
  * 通用地图轨迹记录器（请在ViewModel中创建）
@@ -21,10 +21,40 @@ class MapTrackRecorder {
     var recorderInterval: Long = 1000
 
     /**
-     * 轨迹坐标数据
+     * 轨迹坐标数据（兼容MapPositionGroup，isRecordTrackData为false时不再写入）
      */
     val trackData = MapPositionGroup()
 
+    /**
+     * 是否同时记录到trackData（默认开启；只使用trackStore时可关闭，关闭后添加坐标不再写入trackData，也不会重新设置其LiveData，适合长时间记录）
+     */
+    var isRecordTrackData = true
+
+    /**
+     * 轨迹坐标数据（列式存储，始终记录）
+     */
+    val trackStore = MapTrackStore()
+
+    /**
+     * 轨迹简化器（为null时不简化，例如DouglasPeuckerTrackSimplifier、VisvalingamTrackSimplifier）
+     */
+    var simplifier: MapTrackSimplifier? = null
+
+    /**
+     * 是否记录未简化的原始轨迹（记录到rawTrackStore）
+     */
+    var isRecordRawTrack = false
+
+    /**
+     * 未简化的原始轨迹坐标数据
+     */
+    val rawTrackStore = MapTrackStore()
+
+    /**
+     * 计算距离的结果（复用）
+     */
+    private val distanceResults = FloatArray(1)
+
     /**
      * 相邻时只添加一个相同的坐标
      */
@@ -41,6 +71,15 @@ class MapTrackRecorder {
     private var _eventTrackDataUpdate = MutableLiveData<Event<Unit>>()
     var eventTrackDataUpdate: LiveData<Event<Unit>> = _eventTrackDataUpdate
 
+    /**
+     * 是否已有等待发送的轨迹更新事件（同一消息循环中多次更新轨迹只发送一次事件）
+     */
+    private var isTrackDataUpdatePending = false
+    private val dispatchTrackDataUpdate = Runnable {
+        isTrackDataUpdatePending = false
+        _eventTrackDataUpdate.value = Event(Unit)
+    }
+
     /**
      * 过滤器是否开启
      */
@@ -58,28 +97,61 @@ class MapTrackRecorder {
      */
     fun addTrackPosiition(position: MapPosition) {
         // 只记录一个邻近的相同坐标
-        if (isAddOneSameTrackPositionWhenAdjacent
-        ) {
-            val last = trackData.mapPositions.lastOrNull()
-            if (last != null) {
-                if (last.latitude == position.latitude && last.longitude == position.longitude) {
-                    // 相同的坐标避免重复记录
-                    return
-                }
-                if (sameTrackPositionDistanceBetween > 0f && last.distanceBetween(position) < sameTrackPositionDistanceBetween) {
+        if (isAddOneSameTrackPositionWhenAdjacent && !trackStore.isEmpty) {
+            val lastIndex = trackStore.size - 1
+            val lastLatitude = trackStore.latitude(lastIndex)
+            val lastLongitude = trackStore.longitude(lastIndex)
+            if (lastLatitude == position.latitude && lastLongitude == position.longitude) {
+                // 相同的坐标避免重复记录
+                return
+            }
+            if (sameTrackPositionDistanceBetween > 0f) {
+                Location.distanceBetween(
+                    lastLatitude,
+                    lastLongitude,
+                    position.latitude,
+                    position.longitude,
+                    distanceResults
+                )
+                if (distanceResults[0] < sameTrackPositionDistanceBetween) {
                     // 避免添加距离过近的点
                     return
                 }
-                LOG("添加坐标距离：" + last.distanceBetween(position))
             }
         }
         // 过滤
         if (filterEnabled && !onFilter.invoke(position)) {
             return
         }
-        LOG("添加坐标：" + position.latitude + "  " + position.latitude)
-        trackData.addMapPosition(position)
-        _eventTrackDataUpdate.value = Event(Unit)
+        if (isRecordRawTrack) rawTrackStore.add(position)
+        // 简化轨迹，新坐标可以代替最后一个坐标时，先删除最后一个坐标
+        if (simplifier?.offer(position.latitude, position.longitude) == true) {
+            trackStore.removeLast()
+            if (isRecordTrackData) trackData.removeMapPosition()
+        }
+        trackStore.add(position)
+        if (isRecordTrackData) trackData.addMapPosition(position)
+        postTrackDataUpdate()
+    }
+
+    /**
+     * 清空轨迹
+     */
+    fun clearTrack() {
+        trackStore.clear()
+        rawTrackStore.clear()
+        simplifier?.reset()
+        trackData.clearMapPositions()
+        postTrackDataUpdate()
+    }
+
+    /**
+     * 发送轨迹更新事件（合并到下一次消息循环中发送）
+     */
+    private fun postTrackDataUpdate() {
+        if (isTrackDataUpdatePending) return
+        isTrackDataUpdatePending = true
+        APP.mainHandler.post(dispatchTrackDataUpdate)
     }
 
     /**
@@ -0,0 +1,181 @@
+package com.arcns.core.map
+
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.sqrt
+
+// 地球平均半径（m）
+private const val EARTH_RADIUS = 6371008.8
+
+// 每度对应的弧长（m）
+private const val METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180
+
+/**
+ * 轨迹在线简化器（逐点决定是否保留，只保留有限的回看窗口）
+ * 简化后轨迹的最后一个坐标总是最新的坐标（暂定点），新坐标到来时，若暂定点可以被省略，则由新坐标替换暂定点，否则暂定点被保留
+ */
+interface MapTrackSimplifier {
+
+    /**
+     * 提交新坐标，返回true表示新坐标替换轨迹的最后一个坐标，返回false表示新坐标追加到轨迹
+     */
+    fun offer(latitude: Double, longitude: Double): Boolean
+
+    /**
+     * 重置（清空轨迹时调用）
+     */
+    fun reset()
+}
+
+/**
+ * 在线Douglas-Peucker简化（打开窗口算法）
+ * 以最后保留的坐标为锚点，若锚点与新坐标之间被省略的所有坐标到两者连线的距离都不超过容差，则省略暂定点，
+ * 被省略的坐标数量达到窗口大小时强制保留暂定点，因此每个坐标的计算量不超过窗口大小，且不产生对象分配
+ */
+class DouglasPeuckerTrackSimplifier(
+    var tolerance: Double = 5.0,// 容差（m）
+    val windowSize: Int = 64// 回看窗口大小（最多连续省略的坐标数量）
+) : MapTrackSimplifier {
+    // 锚点之后被省略的坐标
+    private val windowLatitudes = DoubleArray(windowSize)
+    private val windowLongitudes = DoubleArray(windowSize)
+    private var windowCount = 0
+
+    // 锚点（最后保留的坐标）
+    private var anchorLatitude = 0.0
+    private var anchorLongitude = 0.0
+    private var hasAnchor = false
+
+    // 暂定点（轨迹中的最后一个坐标）
+    private var tentativeLatitude = 0.0
+    private var tentativeLongitude = 0.0
+    private var hasTentative = false
+
+    override fun offer(latitude: Double, longitude: Double): Boolean {
+        if (!hasAnchor) {
+            anchorLatitude = latitude
+            anchorLongitude = longitude
+            hasAnchor = true
+            return false
+        }
+        if (hasTentative && windowCount < windowSize && canOmitTentative(latitude, longitude)) {
+            // 省略暂定点，由新坐标替换
+            windowLatitudes[windowCount] = tentativeLatitude
+            windowLongitudes[windowCount] = tentativeLongitude
+            windowCount++
+            tentativeLatitude = latitude
+            tentativeLongitude = longitude
+            return true
+        }
+        // 保留暂定点作为新的锚点
+        if (hasTentative) {
+            anchorLatitude = tentativeLatitude
+            anchorLongitude = tentativeLongitude
+        }
+        windowCount = 0
+        tentativeLatitude = latitude
+        tentativeLongitude = longitude
+        hasTentative = true
+        return false
+    }
+
+    override fun reset() {
+        hasAnchor = false
+        hasTentative = false
+        windowCount = 0
+    }
+
+    /**
+     * 判断暂定点及之前被省略的坐标到锚点与新坐标连线的距离是否都不超过容差
+     */
+    private fun canOmitTentative(latitude: Double, longitude: Double): Boolean {
+        val scale = cos(Math.toRadians(anchorLatitude)) * METERS_PER_DEGREE
+        val endX = (longitude - anchorLongitude) * scale
+        val endY = (latitude - anchorLatitude) * METERS_PER_DEGREE
+        if (segmentDistance(tentativeLatitude, tentativeLongitude, endX, endY, scale) > tolerance) return false
+        for (index in 0 until windowCount) {
+            if (segmentDistance(windowLatitudes[index], windowLongitudes[index], endX, endY, scale) > tolerance) return false
+        }
+        return true
+    }
+
+    /**
+     * 坐标到锚点与终点连线的距离（以锚点为原点的局部平面坐标，单位为m）
+     */
+    private fun segmentDistance(
+        latitude: Double,
+        longitude: Double,
+        endX: Double,
+        endY: Double,
+        scale: Double
+    ): Double {
+        val x = (longitude - anchorLongitude) * scale
+        val y = (latitude - anchorLatitude) * METERS_PER_DEGREE
+        val lengthSquared = endX * endX + endY * endY
+        if (lengthSquared == 0.0) return sqrt(x * x + y * y)
+        val t = ((x * endX + y * endY) / lengthSquared).coerceIn(0.0, 1.0)
+        val dx = x - t * endX
+        val dy = y - t * endY
+        return sqrt(dx * dx + dy * dy)
+    }
+}
+
+/**
+ * 在线Visvalingam简化
+ * 暂定点与前一个保留坐标、新坐标组成的三角形面积（有效面积）小于阈值时省略暂定点，
+ * 被省略的坐标数量达到窗口大小时强制保留暂定点
+ */
+class VisvalingamTrackSimplifier(
+    var minArea: Double = 25.0,// 有效面积阈值（m²）
+    val windowSize: Int = 64// 最多连续省略的坐标数量
+) : MapTrackSimplifier {
+    private var anchorLatitude = 0.0
+    private var anchorLongitude = 0.0
+    private var hasAnchor = false
+    private var tentativeLatitude = 0.0
+    private var tentativeLongitude = 0.0
+    private var hasTentative = false
+    private var omittedCount = 0
+
+    override fun offer(latitude: Double, longitude: Double): Boolean {
+        if (!hasAnchor) {
+            anchorLatitude = latitude
+            anchorLongitude = longitude
+            hasAnchor = true
+            return false
+        }
+        if (hasTentative && omittedCount < windowSize && effectiveArea(latitude, longitude) < minArea) {
+            omittedCount++
+            tentativeLatitude = latitude
+            tentativeLongitude = longitude
+            return true
+        }
+        if (hasTentative) {
+            anchorLatitude = tentativeLatitude
+            anchorLongitude = tentativeLongitude
+        }
+        omittedCount = 0
+        tentativeLatitude = latitude
+        tentativeLongitude = longitude
+        hasTentative = true
+        return false
+    }
+
+    override fun reset() {
+        hasAnchor = false
+        hasTentative = false
+        omittedCount = 0
+    }
+
+    /**
+     * 锚点、暂定点与新坐标组成的三角形面积（m²）
+     */
+    private fun effectiveArea(latitude: Double, longitude: Double): Double {
+        val scale = cos(Math.toRadians(anchorLatitude)) * METERS_PER_DEGREE
+        val x1 = (tentativeLongitude - anchorLongitude) * scale
+        val y1 = (tentativeLatitude - anchorLatitude) * METERS_PER_DEGREE
+        val x2 = (longitude - anchorLongitude) * scale
+        val y2 = (latitude - anchorLatitude) * METERS_PER_DEGREE
+        return abs(x1 * y2 - x2 * y1) / 2
+    }
+}
@@ -0,0 +1,199 @@
+package com.arcns.core.map
+
+import android.location.Location
+import java.util.Arrays
+
+// 轨迹存储每个分块的坐标数量
+const val MAP_TRACK_STORE_CHUNK_SIZE = 4096
+
+/**
+ * 轨迹列式存储
+ * 坐标按列保存在基本类型数组中（纬度、经度、时间，以及按需创建的精度、速度、方向列），
+ * 按分块增长，扩容时无需拷贝已有数据，每个坐标不再创建对象
+ * 写入与读取请在同一线程中进行（通常为主线程）
+ */
+class MapTrackStore(
+    val chunkSize: Int = MAP_TRACK_STORE_CHUNK_SIZE// 每个分块的坐标数量
+) {
+    // 分块
+    private val chunks = ArrayList<MapTrackChunk>()
+
+    // 坐标数量
+    var size: Int = 0
+        private set
+
+    // 坐标类型（以第一个添加的坐标为准）
+    var type: MapPositionType? = null
+        private set
+
+    // 是否为空
+    val isEmpty: Boolean get() = size == 0
+
+    // 坐标类型转换的结果（复用）
+    private val convertResult = DoubleArray(2)
+
+    // 兼容MapPosition的只读视图（访问时才创建MapPosition对象）
+    val positions: List<MapPosition> = object : AbstractList<MapPosition>() {
+        override val size: Int get() = this@MapTrackStore.size
+        override fun get(index: Int): MapPosition = getMapPosition(index)
+    }
+
+    /**
+     * 添加坐标（精度、速度、方向为NaN时表示没有该数据，坐标类型与已存储的类型不一致时先转换为已存储的类型）
+     */
+    fun add(
+        latitude: Double,
+        longitude: Double,
+        type: MapPositionType,
+        time: Long = System.currentTimeMillis(),
+        accuracy: Float = Float.NaN,
+        speed: Float = Float.NaN,
+        bearing: Float = Float.NaN
+    ) {
+        val storeType = this.type ?: type.also { this.type = it }
+        var storeLatitude = latitude
+        var storeLongitude = longitude
+        if (type != storeType) {
+            MapPositionConverter.convert(latitude, longitude, type, storeType, convertResult)
+            storeLatitude = convertResult[0]
+            storeLongitude = convertResult[1]
+        }
+        val offset = size % chunkSize
+        val chunk = if (offset == 0) MapTrackChunk(chunkSize).also { chunks.add(it) } else chunks.last()
+        chunk.latitudes[offset] = storeLatitude
+        chunk.longitudes[offset] = storeLongitude
+        chunk.times[offset] = time
+        if (!accuracy.isNaN()) chunk.accuracyColumn()[offset] = accuracy
+        else chunk.accuracies?.set(offset, Float.NaN)
+        if (!speed.isNaN()) chunk.speedColumn()[offset] = speed
+        else chunk.speeds?.set(offset, Float.NaN)
+        if (!bearing.isNaN()) chunk.bearingColumn()[offset] = bearing
+        else chunk.bearings?.set(offset, Float.NaN)
+        chunk.count = offset + 1
+        size++
+    }
+
+    /**
+     * 添加坐标（若extraData为Location，则同时记录时间、精度、速度与方向）
+     */
+    fun add(position: MapPosition) {
+        val location = position.extraData as? Location
+        if (location == null) {
+            add(position.latitude, position.longitude, position.type)
+            return
+        }
+        add(
+            position.latitude,
+            position.longitude,
+            position.type,
+            location.time,
+            if (location.hasAccuracy()) location.accuracy else Float.NaN,
+            if (location.hasSpeed()) location.speed else Float.NaN,
+            if (location.hasBearing()) location.bearing else Float.NaN
+        )
+    }
+
+    /**
+     * 删除最后一个坐标
+     */
+    fun removeLast() {
+        if (size == 0) return
+        size--
+        val chunk = chunks.last()
+        chunk.count--
+        if (chunk.count == 0) chunks.removeAt(chunks.size - 1)
+        if (size == 0) type = null
+    }
+
+    /**
+     * 清空
+     */
+    fun clear() {
+        chunks.clear()
+        size = 0
+        type = null
+    }
+
+    /**
+     * 将全部坐标原地转换为指定类型（按分块批量转换，不产生对象分配）
+     */
+    fun convertTo(type: MapPositionType) {
+        val from = this.type ?: return
+        if (from == type) return
+        forEachChunk { chunk, _, count ->
+            MapPositionConverter.convert(chunk.latitudes, chunk.longitudes, from, type, 0, count)
+        }
+        this.type = type
+    }
+
+    fun latitude(index: Int): Double = chunkOf(index).latitudes[index % chunkSize]
+
+    fun longitude(index: Int): Double = chunkOf(index).longitudes[index % chunkSize]
+
+    fun time(index: Int): Long = chunkOf(index).times[index % chunkSize]
+
+    fun accuracy(index: Int): Float = chunkOf(index).accuracies?.get(index % chunkSize) ?: Float.NaN
+
+    fun speed(index: Int): Float = chunkOf(index).speeds?.get(index % chunkSize) ?: Float.NaN
+
+    fun bearing(index: Int): Float = chunkOf(index).bearings?.get(index % chunkSize) ?: Float.NaN
+
+    /**
+     * 创建指定位置的MapPosition（不缓存）
+     */
+    fun getMapPosition(index: Int): MapPosition =
+        MapPosition(latitude(index), longitude(index), type ?: MapPositionType.GCJ02)
+
+    /**
+     * 按分块遍历（直接访问分块中的数组，不产生拷贝，数组中仅前count个数据有效，start为分块第一个坐标的序号）
+     */
+    inline fun forEachChunk(action: (chunk: MapTrackChunk, start: Int, count: Int) -> Unit) {
+        var start = 0
+        for (index in 0 until chunkCount) {
+            val chunk = chunkAt(index)
+            action(chunk, start, chunk.count)
+            start += chunk.count
+        }
+    }
+
+    // 分块数量
+    val chunkCount: Int get() = chunks.size
+
+    /**
+     * 获取分块
+     */
+    fun chunkAt(index: Int): MapTrackChunk = chunks[index]
+
+    private fun chunkOf(index: Int): MapTrackChunk {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("index: $index, size: $size")
+        return chunks[index / chunkSize]
+    }
+}
+
+/**
+ * 轨迹存储分块（精度、速度、方向列在第一次写入有效值时才创建，没有数据的位置为NaN）
+ */
+class MapTrackChunk(capacity: Int) {
+    val latitudes = DoubleArray(capacity)
+    val longitudes = DoubleArray(capacity)
+    val times = LongArray(capacity)
+    var accuracies: FloatArray? = null
+        private set
+    var speeds: FloatArray? = null
+        private set
+    var bearings: FloatArray? = null
+        private set
+
+    // 有效的坐标数量
+    var count: Int = 0
+        internal set
+
+    internal fun accuracyColumn(): FloatArray =
+        accuracies ?: newColumn().also { accuracies = it }
+
+    internal fun speedColumn(): FloatArray = speeds ?: newColumn().also { speeds = it }
+
+    internal fun bearingColumn(): FloatArray = bearings ?: newColumn().also { bearings = it }
+
+    private fun newColumn() = FloatArray(latitudes.size).apply { Arrays.fill(this, Float.NaN) }
+}
@@ -197,7 +197,8 @@ abstract class MapViewManager<MapView, MyLocationStyle, Marker, Polyline, Polygo
                 }
             }
         }
-        markerIDs?.removeAll(noExitGroupMarkerIDs)
+        // 使用HashSet删除，避免逐个对比
+        if (noExitGroupMarkerIDs.isNotEmpty()) markerIDs?.removeAll(noExitGroupMarkerIDs.toHashSet())
     }
 
 
@@ -531,6 +532,73 @@ abstract class MapViewManager<MapView, MyLocationStyle, Marker, Polyline, Polygo
     abstract fun getRightBottomFixedPosition(): MapPosition
 
 
+    /**
+     * 查找可视区域内的地图点（按地图四个角的坐标计算范围，margin为范围向四周扩展的比例），结果追加到result并返回
+     */
+    open fun findMapPositionsInViewport(
+        mapPositionGroup: MapPositionGroup,
+        margin: Double = 0.0,
+        result: ArrayList<MapPosition> = ArrayList()
+    ): ArrayList<MapPosition> {
+        // 可视区域转换为地图点的坐标类型（地图旋转时四个角不再与经纬度对齐，因此取四个角的外接矩形）
+        val type = mapPositionGroup.mapPositions.firstOrNull()?.type ?: return result
+        var minLatitude = Double.MAX_VALUE
+        var minLongitude = Double.MAX_VALUE
+        var maxLatitude = -Double.MAX_VALUE
+        var maxLongitude = -Double.MAX_VALUE
+        arrayOf(
+            getLeftTopFixedPosition(),
+            getRightBottomFixedPosition(),
+            getLeftBottomFixedPosition(),
+            getRightTopFixedPosition()
+        ).forEach {
+            val position = it.convertTo(type)
+            minLatitude = minOf(minLatitude, position.latitude)
+            minLongitude = minOf(minLongitude, position.longitude)
+            maxLatitude = maxOf(maxLatitude, position.latitude)
+            maxLongitude = maxOf(maxLongitude, position.longitude)
+        }
+        val latitudeMargin = (maxLatitude - minLatitude) * margin
+        val longitudeMargin = (maxLongitude - minLongitude) * margin
+        return mapPositionGroup.findMapPositionsInBounds(
+            minLatitude - latitudeMargin,
+            minLongitude - longitudeMargin,
+            maxLatitude + latitudeMargin,
+            maxLongitude + longitudeMargin,
+            result
+        )
+    }
+
+    /**
+     * 只在地图上显示可视区域内的点（可视区域外的点仅从地图中删除，仍保留在坐标组中），适用于数据量较大的坐标组，通常在地图场景变化后调用
+     * 注意：重新进入可视区域的点会创建新的点并更新地图点的id，此时globalApplyCustomOptions回调的group参数为空
+     */
+    open fun addOrUpdateMarkersInViewport(
+        mapPositionGroup: MapPositionGroup,
+        margin: Double = 0.5 // 可视区域向四周扩展的比例，避免小范围移动地图时反复创建点
+    ) {
+        val visibleMarkerIDs = HashSet<String>()
+        findMapPositionsInViewport(mapPositionGroup, margin).forEach {
+            val marker = markers[it.id]
+            if (marker != null) {
+                setMarkerPosition(marker, it)
+            } else {
+                // 地图点已在坐标组中，不传入坐标组以避免addMarker在坐标组中逐个查找
+                addMarker(it, null, mapPositionGroup.applyCustomOptions)
+            }
+            it.id?.let { id -> visibleMarkerIDs.add(id) }
+        }
+        // 从地图中删除可视区域外的点，并更新点和坐标组的关联
+        val markerIDs = groupMarkers[mapPositionGroup.uniqueID]
+        markerIDs?.forEach {
+            if (!visibleMarkerIDs.contains(it)) {
+                markers[it]?.run { removeMarker(this) }
+            }
+        }
+        groupMarkers[mapPositionGroup.uniqueID] = ArrayList(visibleMarkerIDs)
+        mapViewInvalidate()
+    }
+
     /**
      * 添加中心点（固定）的坐标到坐标组
      */
@@ -0,0 +1,78 @@
+package com.arcns.core.network
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.net.ConnectivityManager
+import android.net.NetworkCapabilities
+import android.os.BatteryManager
+import android.os.Build
+
+/**
+ * 基于系统广播的网络条件来源（网络连接变化与电量变化，需要ACCESS_NETWORK_STATE权限）
+ */
+class AndroidNetworkConditionSource(
+    context: Context,
+    var batteryLowPercent: Int = 15// 低于该电量百分比视为电量过低
+) : NetworkConditionSource() {
+
+    private val context = context.applicationContext
+
+    private val connectivityManager =
+        this.context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
+
+    // 最新的电量广播
+    private var batteryIntent: Intent? = null
+
+    private val receiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            if (intent.action == Intent.ACTION_BATTERY_CHANGED) batteryIntent = intent
+            refresh()
+        }
+    }
+
+    override fun onActive() {
+        batteryIntent = context.registerReceiver(receiver, IntentFilter().apply {
+            addAction(ConnectivityManager.CONNECTIVITY_ACTION)
+            addAction(Intent.ACTION_BATTERY_CHANGED)
+        })
+        refresh()
+    }
+
+    override fun onInactive() {
+        context.unregisterReceiver(receiver)
+    }
+
+    /**
+     * 重新读取当前条件
+     */
+    @Suppress("DEPRECATION")
+    fun refresh() {
+        val networkInfo = connectivityManager.activeNetworkInfo
+        val bandwidthKbps = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            connectivityManager.activeNetwork?.let {
+                connectivityManager.getNetworkCapabilities(it)?.linkDownstreamBandwidthKbps
+            } ?: 0
+        } else 0
+        val isUnmetered = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            connectivityManager.activeNetwork?.let {
+                connectivityManager.getNetworkCapabilities(it)
+                    ?.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)
+            } ?: false
+        } else !connectivityManager.isActiveNetworkMetered
+        val battery = batteryIntent
+        val status = battery?.getIntExtra(BatteryManager.EXTRA_STATUS, -1) ?: -1
+        val level = battery?.getIntExtra(BatteryManager.EXTRA_LEVEL, -1) ?: -1
+        val scale = battery?.getIntExtra(BatteryManager.EXTRA_SCALE, -1) ?: -1
+        update(
+            NetworkConditions(
+                isConnected = networkInfo?.isConnected == true,
+                isUnmetered = isUnmetered,
+                bandwidthKbps = bandwidthKbps,
+                isCharging = status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL,
+                isBatteryLow = level >= 0 && scale > 0 && level * 100 / scale < batteryLowPercent
+            )
+        )
+    }
+}
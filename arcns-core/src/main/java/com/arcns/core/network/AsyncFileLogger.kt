@@ -0,0 +1,179 @@
+package com.arcns.core.network
+
+import com.arcns.core.file.tryClose
+import com.arcns.core.util.LOG
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileWriter
+import java.text.SimpleDateFormat
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReferenceArray
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * 异步文件日志（LimitHttpLoggingInterceptor.Logger的实现）
+ * OkHttp线程仅将日志写入无锁环形缓冲区后立即返回，由一个后台线程批量写入文件，文件超过大小后滚动，
+ * 缓冲区已满时丢弃日志并计数，写入线程赶上后会在文件中记录丢弃的数量
+ */
+class AsyncFileLogger(
+    val logDirPath: String,// 日志目录
+    val fileName: String = "http.log",// 日志文件名（滚动后的文件名为：文件名.1、文件名.2……）
+    var maxFileSize: Long = 5 * 1024 * 1024,// 单个日志文件的最大长度
+    var maxFileCount: Int = 3,// 最多保留的日志文件数量（含当前文件）
+    capacity: Int = 4096,// 缓冲区容量（会向上取整为2的幂）
+    var idleWaitMillis: Long = 20// 缓冲区为空时，写入线程的等待时间
+) : LimitHttpLoggingInterceptor.Logger {
+
+    // 缓冲区容量（2的幂）
+    private val capacity: Int = Integer.highestOneBit(maxOf(capacity, 2) - 1) shl 1
+
+    private val mask = this.capacity - 1
+
+    // 环形缓冲区
+    private val slots = AtomicReferenceArray<Entry?>(this.capacity)
+
+    // 下一个写入位置（生产者竞争）
+    private val writeIndex = AtomicLong()
+
+    // 下一个读取位置（仅写入线程修改）
+    @Volatile
+    private var readIndex = 0L
+
+    // 丢弃的日志数量
+    private val droppedCounter = AtomicLong()
+
+    // 已记录到文件中的丢弃数量
+    private var reportedDroppedCount = 0L
+
+    // 是否已关闭
+    @Volatile
+    private var isClosed = false
+
+    private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.getDefault())
+
+    private val logFile = File(logDirPath, fileName)
+
+    private var writer: BufferedWriter? = null
+
+    // 当前日志文件的长度（按写入的字符数估算，避免每行都读取文件长度）
+    private var fileLength = 0L
+
+    // 写入线程
+    private val writerThread = Thread({ runWriter() }, "AsyncFileLogger").apply {
+        isDaemon = true
+        start()
+    }
+
+    // 丢弃的日志数量
+    val droppedCount: Long get() = droppedCounter.get()
+
+    /**
+     * 写入日志（不阻塞，缓冲区已满时丢弃）
+     */
+    override fun log(message: String) {
+        if (isClosed) return
+        while (true) {
+            val index = writeIndex.get()
+            if (index - readIndex >= capacity) {
+                droppedCounter.incrementAndGet()
+                return
+            }
+            if (writeIndex.compareAndSet(index, index + 1)) {
+                slots.set((index and mask.toLong()).toInt(), Entry(System.currentTimeMillis(), message))
+                return
+            }
+        }
+    }
+
+    /**
+     * 关闭日志（写入缓冲区中剩余的日志后结束写入线程）
+     */
+    fun close() {
+        isClosed = true
+        LockSupport.unpark(writerThread)
+        writerThread.join(1000)
+    }
+
+    /**
+     * 写入线程
+     */
+    private fun runWriter() {
+        while (true) {
+            val quantity = drain()
+            if (quantity == 0) {
+                if (isClosed && readIndex >= writeIndex.get()) break
+                LockSupport.parkNanos(idleWaitMillis * 1_000_000)
+            }
+        }
+        writer?.tryClose()
+        writer = null
+    }
+
+    /**
+     * 将缓冲区中的日志写入文件，返回写入的数量
+     */
+    private fun drain(): Int {
+        var quantity = 0
+        try {
+            while (true) {
+                val slot = (readIndex and mask.toLong()).toInt()
+                // 为null表示缓冲区为空，或生产者已占用位置但尚未写入
+                val entry = slots.getAndSet(slot, null) ?: break
+                readIndex++
+                write(dateFormat.format(Date(entry.time)) + " " + entry.message)
+                quantity++
+            }
+            val dropped = droppedCounter.get()
+            if (dropped > reportedDroppedCount) {
+                write(dateFormat.format(Date()) + " ... ${dropped - reportedDroppedCount} log messages dropped")
+                reportedDroppedCount = dropped
+            }
+            if (quantity > 0) writer?.flush()
+        } catch (e: Exception) {
+            LOG("AsyncFileLogger write error " + e.message)
+            writer?.tryClose()
+            writer = null
+        }
+        return quantity
+    }
+
+    /**
+     * 写入一行，文件超过最大长度时滚动
+     */
+    private fun write(line: String) {
+        val writer = writer ?: openWriter()
+        writer.write(line)
+        writer.newLine()
+        fileLength += line.length + 1
+        if (fileLength >= maxFileSize) {
+            writer.flush()
+            writer.tryClose()
+            this.writer = null
+            rotate()
+        }
+    }
+
+    private fun openWriter(): BufferedWriter {
+        logFile.parentFile?.mkdirs()
+        fileLength = logFile.length()
+        return BufferedWriter(FileWriter(logFile, true)).also { writer = it }
+    }
+
+    /**
+     * 滚动日志文件（文件名.n-1 -> 文件名.n，最旧的文件被删除）
+     */
+    private fun rotate() {
+        if (maxFileCount <= 1) {
+            logFile.delete()
+            return
+        }
+        File(logDirPath, "$fileName.${maxFileCount - 1}").delete()
+        for (index in maxFileCount - 2 downTo 1) {
+            File(logDirPath, "$fileName.$index").renameTo(File(logDirPath, "$fileName.${index + 1}"))
+        }
+        logFile.renameTo(File(logDirPath, "$fileName.1"))
+    }
+
+    private class Entry(val time: Long, val message: String)
+}
@@ -0,0 +1,378 @@
+package com.arcns.core.network
+
+import com.arcns.core.file.cacheDirPath
+import com.arcns.core.file.tryClose
+import com.arcns.core.util.LOG
+import com.arcns.core.util.toMD5
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import java.io.*
+import java.net.HttpURLConnection
+
+// 下载缓存的默认最大容量
+const val DOWNLOAD_CACHE_MAX_SIZE = 50 * 1024 * 1024L
+
+/**
+ * 下载缓存模式
+ */
+enum class DownloadCacheMode {
+    Validate, // 每次下载都向服务器发送条件请求（If-None-Match、If-Modified-Since），返回304时直接使用缓存
+    CacheFirst // 存在缓存时立即使用缓存完成任务，再在后台向服务器验证，若文件已更新则刷新缓存与保存文件
+}
+
+/**
+ * 下载缓存条目
+ */
+class DownloadCacheEntry(
+    val key: String,// 条目标识（下载地址的MD5）
+    val url: String,// 下载地址
+    var eTag: String?,// 服务器返回的ETag
+    var lastModified: String?,// 服务器返回的Last-Modified
+    val hash: String,// 文件内容的SHA-256（同时为缓存文件名，相同内容的条目共用一个缓存文件）
+    val length: Long,// 文件长度
+    val fileName: String?,// 服务器返回的文件名
+    var accessTime: Long = System.currentTimeMillis()// 最后访问时间
+) {
+    /**
+     * 创建缓存命中时使用的响应（任务成功回调需要Response）
+     */
+    fun toResponse(): Response = Response.Builder()
+        .request(Request.Builder().url(url).build())
+        .protocol(Protocol.HTTP_1_1)
+        .code(HttpURLConnection.HTTP_OK)
+        .message("OK")
+        .header("X-Download-Cache", "HIT")
+        .apply {
+            eTag?.let { header("ETag", it) }
+            lastModified?.let { header("Last-Modified", it) }
+        }
+        .build()
+}
+
+/**
+ * 下载缓存（适用于反复下载的小文件）
+ * 缓存文件以内容的SHA-256命名，相同内容只保存一份；条目记录下载地址对应的验证信息；
+ * 缓存文件总大小超过maxSize时，按最近最少使用的顺序淘汰条目；
+ * 命中时访问时间只在内存中更新，在淘汰时或调用flush时才写入条目文件
+ */
+class DownloadCache(
+    val directory: File = File(cacheDirPath, "download_cache"),// 缓存目录
+    maxSize: Long = DOWNLOAD_CACHE_MAX_SIZE,// 缓存文件的最大总大小
+    var onRevalidated: ((DownloadTask, Boolean) -> Unit)? = null// CacheFirst模式后台验证完成回调（主线程，参数为文件是否已更新）
+) {
+    // 条目目录
+    private val entriesDir = File(directory, "entries")
+
+    // 缓存文件目录
+    private val blobsDir = File(directory, "blobs")
+
+    // 条目（按访问顺序排列，最久未访问的在最前）
+    private val entries = LinkedHashMap<String, DownloadCacheEntry>(16, 0.75f, true)
+
+    // 缓存文件的引用数量
+    private val blobReferences = HashMap<String, Int>()
+
+    // 访问时间已更新但未保存的条目
+    private val dirtyKeys = HashSet<String>()
+
+    // 已确认内容的文件（key为文件路径），长度与修改时间未变化时无需重新计算摘要
+    private val fileStamps = HashMap<String, DownloadCacheFileStamp>()
+
+    // 缓存文件的最大总大小
+    @get:Synchronized
+    @set:Synchronized
+    var maxSize: Long = maxSize
+        set(value) {
+            field = value
+            trim()
+        }
+
+    // 缓存文件的总大小
+    @get:Synchronized
+    var size: Long = 0
+        private set
+
+    init {
+        load()
+    }
+
+    /**
+     * 获取条目（缓存文件不存在时删除条目并返回null）
+     */
+    @Synchronized
+    fun get(url: String): DownloadCacheEntry? {
+        val entry = entries[url.toMD5()] ?: return null
+        if (!blobFile(entry).exists()) {
+            removeEntry(entry)
+            return null
+        }
+        entry.accessTime = System.currentTimeMillis()
+        dirtyKeys.add(entry.key)
+        return entry
+    }
+
+    /**
+     * 将下载完成的文件加入缓存，若响应禁止缓存或没有验证信息（ETag、Last-Modified），则不缓存并返回null
+     */
+    fun put(url: String, response: Response, file: File): DownloadCacheEntry? {
+        if (response.header("Cache-Control")?.contains("no-store", true) == true) return null
+        val eTag = response.header("ETag")
+        val lastModified = response.header("Last-Modified")
+        if (eTag == null && lastModified == null) return null
+        try {
+            val hash = file.sha256()
+            stamp(file, hash)
+            val entry = DownloadCacheEntry(
+                url.toMD5(),
+                url,
+                eTag,
+                lastModified,
+                hash,
+                file.length(),
+                response.fileName
+            )
+            synchronized(this) {
+                // 先移除旧条目，再确认缓存文件存在（旧条目可能是该缓存文件的唯一引用）
+                entries[entry.key]?.let { removeEntry(it) }
+                val blob = blobFile(entry)
+                if (!blob.exists()) {
+                    blobsDir.mkdirs()
+                    val temp = File(blobsDir, "$hash.tmp")
+                    file.copyTo(temp, true)
+                    if (!temp.renameTo(blob)) throw IOException("download cache rename blob failed")
+                }
+                addEntry(entry)
+                saveEntry(entry)
+                trim()
+            }
+            return entry
+        } catch (e: Exception) {
+            LOG("DownloadCache put error " + e.message)
+            return null
+        }
+    }
+
+    /**
+     * 服务器返回304后，更新条目的验证信息与访问时间
+     */
+    @Synchronized
+    fun update(entry: DownloadCacheEntry, response: Response) {
+        response.header("ETag")?.let { entry.eTag = it }
+        response.header("Last-Modified")?.let { entry.lastModified = it }
+        entry.accessTime = System.currentTimeMillis()
+        if (entries[entry.key] === entry) saveEntry(entry)
+    }
+
+    /**
+     * 为请求添加条件请求头
+     */
+    fun applyValidators(entry: DownloadCacheEntry, builder: Request.Builder) {
+        entry.eTag?.let { builder.header("If-None-Match", it) }
+        entry.lastModified?.let { builder.header("If-Modified-Since", it) }
+    }
+
+    /**
+     * 将缓存文件恢复为任务的保存文件，若保存文件与缓存内容一致则不重写，返回是否写入了文件
+     */
+    fun restoreTo(entry: DownloadCacheEntry, task: DownloadTask): Boolean {
+        val saveFile = task.saveFile ?: throw Exception("download task save file not empty")
+        if (task.digestAlgorithm == null && isSameContent(saveFile, entry)) {
+            return false
+        }
+        val blob = blobFile(entry)
+        if (task.digestAlgorithm != null) {
+            // 写入临时文件，由校验通过后重命名为保存文件
+            val writeFile = task.writeFile ?: throw Exception("download task write file not empty")
+            synchronized(this) { blob.copyTo(writeFile, true) }
+            task.verifyAndPromote()
+            stamp(saveFile, entry.hash)
+        } else {
+            // 先写入临时文件再重命名，避免正在读取保存文件的一方读到不完整的内容
+            val temp = File(saveFile.absolutePath + DOWNLOAD_TEMP_FILE_SUFFIX)
+            synchronized(this) { blob.copyTo(temp, true) }
+            if (!temp.renameTo(saveFile)) {
+                saveFile.delete()
+                if (!temp.renameTo(saveFile)) throw Exception("download task promote file failed")
+            }
+            stamp(saveFile, entry.hash)
+        }
+        return true
+    }
+
+    /**
+     * 判断文件内容是否与条目一致（长度与修改时间和上次确认时相同时，不再重新计算摘要）
+     */
+    private fun isSameContent(file: File, entry: DownloadCacheEntry): Boolean {
+        if (!file.exists() || file.length() != entry.length) return false
+        val stamp = synchronized(this) { fileStamps[file.absolutePath] }
+        if (stamp != null && stamp.length == entry.length && stamp.lastModified == file.lastModified()) {
+            return stamp.hash == entry.hash
+        }
+        val hash = file.sha256()
+        stamp(file, hash)
+        return hash == entry.hash
+    }
+
+    /**
+     * 记录文件内容的摘要及当前的长度与修改时间
+     */
+    private fun stamp(file: File, hash: String) {
+        val stamp = DownloadCacheFileStamp(hash, file.length(), file.lastModified())
+        synchronized(this) { fileStamps[file.absolutePath] = stamp }
+    }
+
+    /**
+     * 创建后台验证时使用的临时文件
+     */
+    fun createTempFile(): File {
+        blobsDir.mkdirs()
+        return File.createTempFile("revalidate", ".tmp", blobsDir)
+    }
+
+    /**
+     * 删除下载地址对应的条目
+     */
+    @Synchronized
+    fun remove(url: String) {
+        entries[url.toMD5()]?.let { removeEntry(it) }
+    }
+
+    /**
+     * 清空缓存
+     */
+    @Synchronized
+    fun clear() {
+        entries.values.toList().forEach { removeEntry(it) }
+    }
+
+    /**
+     * 保存内存中已更新的访问时间（淘汰条目时自动调用，应用退出前可手动调用，未保存时仅影响下次启动后的淘汰顺序）
+     */
+    @Synchronized
+    fun flush() {
+        if (dirtyKeys.isEmpty()) return
+        dirtyKeys.toList().forEach { key -> entries[key]?.let { saveEntry(it) } }
+        dirtyKeys.clear()
+    }
+
+    /**
+     * 按最近最少使用的顺序淘汰条目，直到缓存文件总大小不超过maxSize，并保存已更新的访问时间
+     */
+    @Synchronized
+    private fun trim() {
+        val iterator = entries.values.iterator()
+        while (size > maxSize && iterator.hasNext()) {
+            val entry = iterator.next()
+            iterator.remove()
+            releaseEntry(entry)
+        }
+        flush()
+    }
+
+    private fun addEntry(entry: DownloadCacheEntry) {
+        entries[entry.key] = entry
+        val references = blobReferences[entry.hash] ?: 0
+        if (references == 0) size += entry.length
+        blobReferences[entry.hash] = references + 1
+    }
+
+    private fun removeEntry(entry: DownloadCacheEntry) {
+        entries.remove(entry.key)
+        releaseEntry(entry)
+    }
+
+    /**
+     * 删除条目文件，缓存文件不再被引用时一并删除
+     */
+    private fun releaseEntry(entry: DownloadCacheEntry) {
+        dirtyKeys.remove(entry.key)
+        entryFile(entry.key).delete()
+        val references = (blobReferences[entry.hash] ?: 1) - 1
+        if (references > 0) {
+            blobReferences[entry.hash] = references
+            return
+        }
+        blobReferences.remove(entry.hash)
+        size -= entry.length
+        blobFile(entry).delete()
+    }
+
+    private fun entryFile(key: String) = File(entriesDir, key)
+
+    private fun blobFile(entry: DownloadCacheEntry) = File(blobsDir, entry.hash)
+
+    /**
+     * 保存条目（每行一个字段）
+     */
+    private fun saveEntry(entry: DownloadCacheEntry) {
+        dirtyKeys.remove(entry.key)
+        try {
+            entriesDir.mkdirs()
+            val writer = BufferedWriter(FileWriter(entryFile(entry.key)))
+            try {
+                writer.write(entry.url)
+                writer.newLine()
+                writer.write(entry.eTag ?: "")
+                writer.newLine()
+                writer.write(entry.lastModified ?: "")
+                writer.newLine()
+                writer.write(entry.hash)
+                writer.newLine()
+                writer.write(entry.length.toString())
+                writer.newLine()
+                writer.write(entry.fileName ?: "")
+                writer.newLine()
+                writer.write(entry.accessTime.toString())
+                writer.flush()
+            } finally {
+                writer.tryClose()
+            }
+        } catch (e: Exception) {
+            LOG("DownloadCache save entry error " + e.message)
+        }
+    }
+
+    /**
+     * 读取全部条目，并按访问时间排列（缓存文件已不存在的条目会被删除）
+     */
+    private fun load() {
+        entriesDir.listFiles()?.mapNotNull { file ->
+            var reader: BufferedReader? = null
+            try {
+                reader = BufferedReader(FileReader(file))
+                val url = reader.readLine() ?: return@mapNotNull null
+                val eTag = reader.readLine()?.takeIf { it.isNotEmpty() }
+                val lastModified = reader.readLine()?.takeIf { it.isNotEmpty() }
+                val hash = reader.readLine() ?: return@mapNotNull null
+                val length = reader.readLine()?.toLongOrNull() ?: return@mapNotNull null
+                val fileName = reader.readLine()?.takeIf { it.isNotEmpty() }
+                val accessTime = reader.readLine()?.toLongOrNull() ?: 0
+                DownloadCacheEntry(file.name, url, eTag, lastModified, hash, length, fileName, accessTime)
+            } catch (e: Exception) {
+                LOG("DownloadCache load entry error " + e.message)
+                null
+            } finally {
+                reader?.tryClose()
+            }
+        }?.sortedBy { it.accessTime }?.forEach { entry ->
+            if (blobFile(entry).exists()) addEntry(entry) else entryFile(entry.key).delete()
+        }
+        trim()
+    }
+}
+
+/**
+ * 已确认内容的文件记录
+ */
+private class DownloadCacheFileStamp(
+    val hash: String,// 文件内容的SHA-256
+    val length: Long,// 确认时的文件长度
+    val lastModified: Long// 确认时的修改时间
+)
+
+/**
+ * 计算文件内容的SHA-256
+ */
+private fun File.sha256(): String =
+    DownloadDigest.create(DownloadDigestAlgorithm.SHA256).apply { updateFromFile(this@sha256) }.hex()
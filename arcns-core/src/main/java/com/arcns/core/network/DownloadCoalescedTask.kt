@@ -0,0 +1,94 @@
+package com.arcns.core.network
+
+import com.arcns.core.app.NotificationOptions
+import com.arcns.core.file.cacheDirPath
+import com.arcns.core.util.toMD5
+import java.io.File
+import java.util.UUID
+
+// 合并下载的临时文件目录
+const val DOWNLOAD_COALESCED_DIR_NAME = "download_coalesced"
+
+/**
+ * 合并下载的共享任务
+ * 相同地址的多个下载任务同时下载时，由一个共享任务负责实际的网络传输（占用一个下载通道），
+ * 订阅的任务跟随共享任务的状态与进度，下载完成后将文件复制到各自的保存路径，
+ * 订阅的任务被取消或暂停时仅退订，全部退订后才取消共享任务；
+ * 临时文件名包含共享任务的id，相同地址先后创建的共享任务互不影响各自的临时文件
+ */
+class DownloadCoalescedTask private constructor(
+    first: DownloadTask,// 第一个订阅的任务（共享任务使用该任务的断点续传、分段与优先级配置）
+    id: String// 共享任务id
+) : DownloadTask(
+    url = first.url,
+    saveDirPath = File(cacheDirPath, DOWNLOAD_COALESCED_DIR_NAME).absolutePath,
+    saveFileName = first.url.toMD5() + "_" + id,
+    saveFileSuffix = "",
+    isBreakpointResume = first.isBreakpointResume,
+    segmentCount = first.segmentCount,
+    segmentMinLength = first.segmentMinLength,
+    priority = first.priority,
+    notificationOptions = NotificationOptions.DISABLE,
+    extraData = first.extraData,
+    id = id
+) {
+
+    constructor(
+        first: DownloadTask// 第一个订阅的任务
+    ) : this(first, UUID.randomUUID().toString())
+
+    // 订阅的任务
+    private val subscribers = ArrayList<DownloadTask>()
+
+    // 是否已结束（结束后不再接受订阅）
+    @get:Synchronized
+    var isFinished: Boolean = false
+        private set
+
+    // 是否已没有订阅的任务
+    @get:Synchronized
+    val isEmpty: Boolean
+        get() = subscribers.isEmpty()
+
+    // 订阅的任务列表（副本）
+    @get:Synchronized
+    val subscriberList: List<DownloadTask>
+        get() = ArrayList(subscribers)
+
+    /**
+     * 订阅，若共享任务已结束则返回false
+     */
+    @Synchronized
+    fun subscribe(task: DownloadTask): Boolean {
+        if (isFinished || isStop) return false
+        if (!subscribers.contains(task)) subscribers.add(task)
+        return true
+    }
+
+    /**
+     * 退订，若任务未订阅或已被取出则返回false
+     */
+    @Synchronized
+    fun unsubscribe(task: DownloadTask): Boolean = subscribers.remove(task)
+
+    /**
+     * 标记共享任务已结束，不再接受订阅
+     */
+    @Synchronized
+    fun finish() {
+        isFinished = true
+    }
+
+    /**
+     * 取出下一个订阅的任务（取出后无法再退订），若没有则返回null
+     */
+    @Synchronized
+    fun pollSubscriber(): DownloadTask? =
+        if (subscribers.isEmpty()) null else subscribers.removeAt(0)
+}
+
+/**
+ * 任务能否与相同地址的任务合并下载（自定义请求或启用下载缓存的任务不合并）
+ */
+val DownloadTask.isCoalescable: Boolean
+    get() = this !is DownloadCoalescedTask && onCustomRequest == null && cache == null
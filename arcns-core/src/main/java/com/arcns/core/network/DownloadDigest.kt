@@ -0,0 +1,214 @@
+package com.arcns.core.network
+
+import com.arcns.core.file.tryClose
+import com.arcns.core.util.LOG
+import okio.Buffer
+import okio.ForwardingSink
+import okio.Sink
+import java.io.*
+import java.security.MessageDigest
+
+// 校验状态文件的后缀名
+const val DOWNLOAD_DIGEST_STATE_FILE_SUFFIX = ".digest"
+
+// 启用校验时，下载临时文件的后缀名
+const val DOWNLOAD_TEMP_FILE_SUFFIX = ".download"
+
+/**
+ * 下载校验算法
+ */
+enum class DownloadDigestAlgorithm {
+    MD5, SHA256, CRC32C
+}
+
+/**
+ * 下载校验（边写入边计算）
+ */
+abstract class DownloadDigest(val algorithm: DownloadDigestAlgorithm) {
+
+    // 已计算的长度
+    var length: Long = 0
+        protected set
+
+    /**
+     * 追加计算
+     */
+    fun update(bytes: ByteArray, offset: Int, byteCount: Int) {
+        onUpdate(bytes, offset, byteCount)
+        length += byteCount
+    }
+
+    protected abstract fun onUpdate(bytes: ByteArray, offset: Int, byteCount: Int)
+
+    /**
+     * 返回校验结果（十六进制小写）
+     */
+    abstract fun hex(): String
+
+    /**
+     * 返回可持久化的计算状态，若算法不支持导出状态则返回null
+     */
+    abstract fun state(): Long?
+
+    /**
+     * 保存计算状态，以便断点续传时无需重新计算已下载的部分（不支持导出状态的算法仅保存长度）
+     */
+    fun save(file: File) {
+        try {
+            val writer = BufferedWriter(FileWriter(file))
+            try {
+                writer.write(algorithm.name)
+                writer.newLine()
+                writer.write(length.toString())
+                writer.newLine()
+                writer.write(state()?.toString() ?: "")
+                writer.flush()
+            } finally {
+                writer.tryClose()
+            }
+        } catch (e: Exception) {
+            LOG("DownloadDigest save error " + e.message)
+        }
+    }
+
+    /**
+     * 从文件中继续计算，直到与文件长度一致
+     */
+    fun updateFromFile(file: File) {
+        if (!file.exists() || file.length() <= length) return
+        val input = RandomAccessFile(file, "r")
+        try {
+            input.seek(length)
+            val buf = ByteArray(DOWNLOAD_PER_BYTE_COUNT)
+            var len: Int
+            while (input.read(buf).also { len = it } != -1) {
+                update(buf, 0, len)
+            }
+        } finally {
+            input.tryClose()
+        }
+    }
+
+    companion object {
+
+        /**
+         * 创建校验
+         */
+        fun create(algorithm: DownloadDigestAlgorithm): DownloadDigest = when (algorithm) {
+            DownloadDigestAlgorithm.MD5 -> MessageDownloadDigest(algorithm, "MD5")
+            DownloadDigestAlgorithm.SHA256 -> MessageDownloadDigest(algorithm, "SHA-256")
+            DownloadDigestAlgorithm.CRC32C -> CRC32CDownloadDigest()
+        }
+
+        /**
+         * 恢复校验，若状态文件与已下载的文件长度一致且算法支持导出状态，则直接恢复，否则重新计算已下载的部分
+         */
+        fun restore(
+            algorithm: DownloadDigestAlgorithm,
+            stateFile: File,
+            file: File
+        ): DownloadDigest {
+            val fileLength = if (file.exists()) file.length() else 0
+            if (fileLength > 0 && stateFile.exists()) {
+                var reader: BufferedReader? = null
+                try {
+                    reader = BufferedReader(FileReader(stateFile))
+                    val savedAlgorithm = reader.readLine()
+                    val savedLength = reader.readLine()?.toLongOrNull()
+                    val savedState = reader.readLine()?.toLongOrNull()
+                    if (savedAlgorithm == algorithm.name && savedLength == fileLength && savedState != null) {
+                        if (algorithm == DownloadDigestAlgorithm.CRC32C) {
+                            return CRC32CDownloadDigest(savedState.toInt(), savedLength)
+                        }
+                    }
+                } catch (e: Exception) {
+                    LOG("DownloadDigest restore error " + e.message)
+                } finally {
+                    reader?.tryClose()
+                }
+            }
+            return create(algorithm).apply { if (fileLength > 0) updateFromFile(file) }
+        }
+    }
+}
+
+/**
+ * 基于MessageDigest的校验（MD5、SHA-256，无法导出计算状态）
+ */
+private class MessageDownloadDigest(
+    algorithm: DownloadDigestAlgorithm,
+    messageAlgorithm: String
+) : DownloadDigest(algorithm) {
+    private val messageDigest = MessageDigest.getInstance(messageAlgorithm)
+
+    override fun onUpdate(bytes: ByteArray, offset: Int, byteCount: Int) =
+        messageDigest.update(bytes, offset, byteCount)
+
+    override fun hex(): String = messageDigest.digest().joinToString("") {
+        String.format("%02x", it)
+    }
+
+    override fun state(): Long? = null
+}
+
+/**
+ * CRC32C校验（Castagnoli多项式，计算状态可直接导出）
+ */
+private class CRC32CDownloadDigest(
+    private var crc: Int = -1,
+    length: Long = 0
+) : DownloadDigest(DownloadDigestAlgorithm.CRC32C) {
+
+    init {
+        this.length = length
+    }
+
+    override fun onUpdate(bytes: ByteArray, offset: Int, byteCount: Int) {
+        var value = crc
+        for (i in offset until offset + byteCount) {
+            value = TABLE[(value xor bytes[i].toInt()) and 0xff] xor (value ushr 8)
+        }
+        crc = value
+    }
+
+    override fun hex(): String = String.format("%08x", crc.inv())
+
+    override fun state(): Long? = crc.toLong()
+
+    companion object {
+        private val TABLE = IntArray(256).apply {
+            for (i in 0 until 256) {
+                var value = i
+                repeat(8) {
+                    value = if (value and 1 != 0) (value ushr 1) xor 0x82F63B78.toInt() else value ushr 1
+                }
+                this[i] = value
+            }
+        }
+    }
+}
+
+/**
+ * 写入时同步计算校验的Sink
+ */
+class DownloadDigestSink(
+    delegate: Sink,
+    val digest: DownloadDigest
+) : ForwardingSink(delegate) {
+
+    // 将Buffer中的数据直接传给校验（不消耗Buffer）
+    private val digestOutputStream = object : OutputStream() {
+        override fun write(b: Int) {
+            digest.update(byteArrayOf(b.toByte()), 0, 1)
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            digest.update(b, off, len)
+        }
+    }
+
+    override fun write(source: Buffer, byteCount: Long) {
+        source.copyTo(digestOutputStream, 0, byteCount)
+        super.write(source, byteCount)
+    }
+}
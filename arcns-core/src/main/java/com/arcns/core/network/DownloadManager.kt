@@ -8,10 +8,19 @@ import com.arcns.core.APP
 import com.arcns.core.file.tryClose
 import com.arcns.core.util.EventObserver
 import com.arcns.core.util.LOG
+import com.arcns.xfile.FileUtil
 import okhttp3.*
+import okio.BufferedSource
+import okio.buffer
+import okio.sink
+import java.io.File
 import java.io.IOException
-import java.io.InputStream
+import java.io.RandomAccessFile
 import java.lang.Exception
+import java.net.HttpURLConnection
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.LinkedList
 
 
 // 下载任务进度更新回调
@@ -62,9 +71,12 @@ class DownloadManager {
 
     private fun handleDownloadManagerNotify(notify: DownloadManagerNotify) {
         when (notify.type) {
-            DownloadManagerNotifyType.Download -> download(notify.task, false)
-            DownloadManagerNotifyType.UpdateNotification -> managerData.updateNotification(notify.task)
+            DownloadManagerNotifyType.Download -> notify.tasks.forEach { download(it, false) }
+            DownloadManagerNotifyType.UpdateNotification -> notify.tasks.forEach {
+                managerData.updateNotification(it)
+            }
         }
+        notify.notificationTasks.forEach { managerData.updateNotification(it) }
     }
 
     /**
@@ -90,42 +102,66 @@ class DownloadManager {
     @Synchronized
     private fun download(
         task: DownloadTask,
-        isBreakpointRetry: Boolean
+        isBreakpointRetry: Boolean,
+        isSegmentDownload: Boolean = task.isSegmentDownload
     ): Boolean {
         if (task.isRunning) return false
+        // 下载缓存
+        val cache = task.cache
+        val cacheEntry = if (isBreakpointRetry) null else cache?.get(task.url)
+        if (cache != null && cacheEntry != null && task.cacheMode == DownloadCacheMode.CacheFirst) {
+            return downloadFromCache(task, cache, cacheEntry)
+        }
+        // 多连接分段下载
+        if (isSegmentDownload && !isBreakpointRetry && cache == null) return downloadSegments(task)
         // 开始下载
         var current = 0L
+        val handler = DownloadTaskHandler(task)
         managerData.httpClient.newCall(Request.Builder().apply {
-            // 断点续传
-            if (task.isBreakpointResume && !isBreakpointRetry && task.breakpoint > 0) {
+            if (cache != null && cacheEntry != null) {
+                // 存在缓存时发送条件请求（不使用断点续传）
+                cache.applyValidators(cacheEntry, this)
+            } else if (task.isBreakpointResume && !isBreakpointRetry && task.breakpoint > 0) {
+                // 断点续传
                 header("Range", "bytes=${task.breakpoint}-") // 设置断点续传
                 current = task.breakpoint // 设置开始位置
             }
             // 设置下载路径
             url(task.url)
+            tag(NetworkTask::class.java, task)
             // 自定义Request回调
             (task?.onCustomRequest ?: managerData.onCustomRequest)?.invoke(task, this)
         }.build()).apply {
             if (task.isRunning) return false
             // 更新任务状态为运行中
-            task.onChangeStateToRunning(this)
+            handler.onRunning(this)
             // 封装请求回调处理
             enqueue(object : Callback {
-                // 上一次更新时间（用于与更新间隔做对比）
-                private var lastProgressUpdateTime: Long = 0
-
-                // 更新间隔
-                private val updateInterval =
-                    task.progressUpdateInterval ?: managerData.progressUpdateInterval
 
                 override fun onFailure(call: Call, e: IOException) {
                     // 任务失败回调
-                    downloadFailure(e, null)
+                    handler.downloadFailure(e, null)
                 }
 
                 override fun onResponse(call: Call, response: Response) {
+                    if (cache != null && cacheEntry != null && response.code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                        // 文件未修改，直接使用缓存（保存文件与缓存一致时不重写）
+                        try {
+                            cache.update(cacheEntry, response)
+                            task.completeSaveFullFileName(cacheEntry.fileName)
+                            cache.restoreTo(cacheEntry, task)
+                            handler.updateProgress(cacheEntry.length, cacheEntry.length, true)
+                            handler.downloadSuccess(response)
+                        } catch (e: Exception) {
+                            handler.downloadFailure(e, response)
+                            LOG("DownLoadTask 缓存恢复失败" + e.message)
+                        } finally {
+                            response.close()
+                        }
+                        return
+                    }
                     if (response.isSuccessful) {
-                        var inputStream: InputStream? = null
+                        var source: BufferedSource? = null
                         try {
                             val responseBody =
                                 response.body ?: throw Exception("response body not empty")
@@ -134,12 +170,13 @@ class DownloadManager {
                             // 判断断点继传相关
                             if (isBreakpointRetry && task.isBreakpointResume && total == task.breakpoint) {
                                 // 任务长度与已下载的断点长度相同，则表示已下载完成
-                                downloadSuccess(response)//任务成功回调
+                                task.verifyAndPromote()//校验并重命名为保存文件
+                                handler.downloadSuccess(response)//任务成功回调
                                 return
                             } else if (task.breakpoint > 0) {
                                 // 不启用或不支持断点续传，则删除之前的文件
-                                if (!task.isBreakpointResume || isBreakpointRetry || !response.isAcceptRange) {
-                                    task.saveFile?.deleteOnExit()//删除之前的文件
+                                if (!task.isBreakpointResume || isBreakpointRetry || !response.isAcceptRange || current == 0L) {
+                                    task.deleteWriteFile()//删除之前的文件
                                     current = 0 // 重置开始位置
                                 } else {
                                     // 确认启动断点续传，重新计算断点续传的文件长度（因为使用Range头后，responseBody.contentLength只会返回剩余的大小）
@@ -149,104 +186,480 @@ class DownloadManager {
                             task.completeSaveFullFileName(response.fileName)
                             LOG("DownLoadTask fileName: " + response.fileName)
                             LOG("DownLoadTask:$total  $current")
-                            // 开始循环接收数据流
-                            var outputStream =
-                                task.getOutputStream()
-                                    ?: throw Exception("download task save file output stream not empty")
-                            inputStream = responseBody.byteStream()
-                            var len = 0
-                            val buf = ByteArray(managerData.perByteCount)
-                            updateProgress(total, current)
-                            while (inputStream.read(buf).also { len = it } != -1) {
+                            // 开始循环接收数据流（数据直接从source的缓冲区转移到sink的缓冲区，无需中间数组）
+                            val sink = task.getSink()
+                                ?: throw Exception("download task save file sink not empty")
+                            source = responseBody.source()
+                            var len = 0L
+                            val byteCount = managerData.perByteCount.toLong()
+                            handler.updateProgress(total, current)
+                            while (source.read(sink.buffer, byteCount).also { len = it } != -1L) {
                                 if (task.isStop) {
                                     throw Exception("task is stop")
                                 }
-                                outputStream.write(buf, 0, len)
+                                sink.emitCompleteSegments()
                                 current += len
-                                // 更新进度回调
-                                updateProgress(total, current)
+                                // 限速
+                                task.acquireBandwidth(len, managerData.rateLimiter)
+                                // 更新进度回调，并同步保存校验的计算状态
+                                if (handler.updateProgress(total, current) && task.digest != null) {
+                                    sink.flush()
+                                    task.saveDigestState()
+                                }
                             }
+                            sink.flush()
+                            // 校验并重命名为保存文件
+                            task.verifyAndPromote()
+                            // 加入下载缓存
+                            task.saveFile?.let { cache?.put(task.url, response, it) }
                             // 下载完成后，再更新一次进度回调
                             total = current
-                            updateProgress(total, current, true)
-                            outputStream.flush()
+                            handler.updateProgress(total, current, true)
                             // 任务完成回调
-                            downloadSuccess(response)
+                            handler.downloadSuccess(response)
                         } catch (e: Exception) {
                             // 任务失败回调
-                            downloadFailure(e, response)
+                            handler.downloadFailure(e, response)
                             LOG("DownLoadTask 任务失败回调" + e.message)
                         } finally {
                             LOG("DownLoadTask 释放连接" + task.breakpoint)
                             // 释放连接
-                            inputStream?.tryClose()
-                            task.closeOutputStream()
+                            source?.tryClose()
+                            task.closeSink()
                         }
 
                     } else {
                         // 若断点继传使用Range头后请求失败，则尝试不使用Range头进行调用（重试）
-                        if (!isBreakpointRetry && task.isBreakpointResume && task.breakpoint > 0) download(
-                            task,
-                            true
-                        )
+                        if (!isBreakpointRetry && task.isBreakpointResume && task.breakpoint > 0 && !task.isStop) {
+                            response.close()
+                            task.onChangeStateToNone()
+                            download(task, true)
+                        }
                         // 任务失败回调
-                        else downloadFailure(null, response)
+                        else handler.downloadFailure(null, response)
                     }
                 }
+            })
+        }
+        return true
+    }
 
-                //下载任务成功回调
-                private fun downloadSuccess(response: Response) {
-                    if (task.isStop) return
-                    // 更新状态
-                    task.onChangeStateToSuccess()
-                    // 回调
-                    APP.mainHandler.post {
-                        task.onTaskSuccess?.invoke(task, response)
-                        managerData.onTaskSuccess?.invoke(task, response)
+    /**
+     * 使用缓存完成下载任务，再在后台向服务器验证缓存（CacheFirst模式）
+     */
+    @Synchronized
+    private fun downloadFromCache(
+        task: DownloadTask,
+        cache: DownloadCache,
+        entry: DownloadCacheEntry
+    ): Boolean {
+        if (task.isRunning) return false
+        val handler = DownloadTaskHandler(task)
+        // 更新任务状态为运行中
+        handler.onRunning(null)
+        managerData.httpClient.dispatcher.executorService.execute {
+            try {
+                task.completeSaveFullFileName(entry.fileName)
+                cache.restoreTo(entry, task)
+                handler.updateProgress(entry.length, entry.length, true)
+                handler.downloadSuccess(entry.toResponse())
+            } catch (e: Exception) {
+                handler.downloadFailure(e, null)
+                LOG("DownLoadTask 缓存恢复失败" + e.message)
+                return@execute
+            }
+            revalidateCache(task, cache, entry)
+        }
+        return true
+    }
+
+    /**
+     * 在后台向服务器验证缓存，若文件已更新则刷新缓存与保存文件（不改变任务状态）
+     */
+    private fun revalidateCache(task: DownloadTask, cache: DownloadCache, entry: DownloadCacheEntry) {
+        managerData.httpClient.newCall(Request.Builder().apply {
+            cache.applyValidators(entry, this)
+            url(task.url)
+            tag(NetworkTask::class.java, task)
+            (task.onCustomRequest ?: managerData.onCustomRequest)?.invoke(task, this)
+        }.build()).enqueue(object : Callback {
+            override fun onFailure(call: Call, e: IOException) {
+                LOG("DownLoadTask 缓存验证失败" + e.message)
+            }
+
+            override fun onResponse(call: Call, response: Response) {
+                var isChanged = false
+                var tempFile: File? = null
+                try {
+                    if (response.code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                        cache.update(entry, response)
+                    } else if (response.isSuccessful) {
+                        val responseBody =
+                            response.body ?: throw Exception("response body not empty")
+                        val file = cache.createTempFile().also { tempFile = it }
+                        file.sink().buffer().use { it.writeAll(responseBody.source()) }
+                        val newEntry = cache.put(task.url, response, file)
+                            ?: throw Exception("download cache put failed")
+                        if (newEntry.hash != entry.hash) isChanged = cache.restoreTo(newEntry, task)
                     }
-                    // 更新到通知栏
-                    managerData.updateNotification(task)
-                    managerData.onEventTaskUpdateByState(task)
+                } catch (e: Exception) {
+                    LOG("DownLoadTask 缓存验证失败" + e.message)
+                } finally {
+                    response.close()
+                    tempFile?.delete()
                 }
+                APP.runOnUiThread { cache.onRevalidated?.invoke(task, isChanged) }
+            }
+        })
+    }
 
-                //下载任务失败（含取消、暂停）回调
-                private fun downloadFailure(e: Exception?, response: Response?) {
-                    // 更新状态
-                    task.onChangeStateToFailureIfNotStop()
-                    // 回调
-                    APP.runOnUiThread {
-                        task.onTaskFailure?.invoke(task, e, response)
-                        managerData.onTaskFailure?.invoke(task, e, response)
-                    }
-                    // 更新到通知栏
-                    managerData.updateNotification(task)
-                    managerData.onEventTaskUpdateByState(task)
+    /**
+     * 多连接分段下载文件（先使用Range头探测文件总长度，若服务器不支持Range寻址，则回退为单连接下载）
+     */
+    @Synchronized
+    private fun downloadSegments(task: DownloadTask): Boolean {
+        if (task.isRunning) return false
+        val handler = DownloadTaskHandler(task)
+        managerData.httpClient.newCall(Request.Builder().apply {
+            // 探测文件总长度
+            header("Range", "bytes=0-0")
+            // 设置下载路径
+            url(task.url)
+            tag(NetworkTask::class.java, task)
+            // 自定义Request回调
+            (task.onCustomRequest ?: managerData.onCustomRequest)?.invoke(task, this)
+        }.build()).apply {
+            if (task.isRunning) return false
+            // 更新任务状态为运行中
+            handler.onRunning(this)
+            // 封装请求回调处理
+            enqueue(object : Callback {
+                override fun onFailure(call: Call, e: IOException) {
+                    // 任务失败回调
+                    handler.downloadFailure(e, null)
                 }
 
-                /**
-                 * 下载任务的文件进度回调
-                 */
-                private fun updateProgress(total: Long, current: Long, isEnd: Boolean = false) {
-                    // 判断回调间隔，避免短时间内多次回调
-                    if (!isEnd && System.currentTimeMillis() - lastProgressUpdateTime < updateInterval) return
-                    lastProgressUpdateTime = System.currentTimeMillis()
-                    // 避免相同进度重复回调
-                    if (task.currentProgress?.current == current) return
-                    // 更新到任务中，然后进行回调
-                    APP.runOnUiThread {
-                        task.updateProgress(total, current)?.run {
-                            managerData.onProgressUpdate?.invoke(task, this)
+                override fun onResponse(call: Call, response: Response) {
+                    val total = response.contentRangeTotal
+                    response.close()
+                    if (task.isStop) {
+                        handler.downloadFailure(null, response)
+                        return
+                    }
+                    if (!response.isSuccessful || response.code != HttpURLConnection.HTTP_PARTIAL || total == null || total <= 0) {
+                        // 服务器不支持Range寻址，回退为单连接下载
+                        LOG("DownLoadTask 不支持分段下载，回退为单连接下载")
+                        task.segmentsFile?.delete()
+                        task.onChangeStateToNone()
+                        download(task, false, false)
+                        return
+                    }
+                    try {
+                        task.completeSaveFullFileName(response.fileName)
+                        val saveFile = task.writeFile
+                            ?: throw Exception("download task save file not empty")
+                        val segmentsFile = task.segmentsFile
+                            ?: throw Exception("download task segments file not empty")
+                        // 读取分段记录，若不存在则重新切分
+                        var segments =
+                            if (saveFile.exists()) DownloadTaskSegments.read(segmentsFile, total) else null
+                        if (segments == null) {
+                            saveFile.delete()
+                            segments = DownloadTaskSegments.create(
+                                total,
+                                task.segmentCount,
+                                task.segmentMinLength
+                            )
+                        }
+                        FileUtil.mkdirIfNotExists(task.saveDirPath)
+                        RandomAccessFile(saveFile, "rw").apply {
+                            setLength(total)
+                            tryClose()
                         }
+                        segments.save(segmentsFile)
+                        LOG("DownLoadTask segments:${segments.segments.size}  $total  ${segments.current}")
+                        DownloadTaskSegmentsRunner(task, handler, saveFile, segmentsFile, segments).start(response)
+                    } catch (e: Exception) {
+                        // 任务失败回调
+                        handler.downloadFailure(e, response)
+                        LOG("DownLoadTask 任务失败回调" + e.message)
+                    }
+                }
+            })
+        }
+        return true
+    }
+
+    /**
+     * 分段下载执行器（每个未完成的分段使用一个连接，并写入到文件的对应位置）
+     * 同时进行的分段数量不超过任务在调度器中每个主机的请求份额，其余分段在前面的分段完成后依次开始
+     */
+    private inner class DownloadTaskSegmentsRunner(
+        val task: DownloadTask,
+        val handler: DownloadTaskHandler,
+        val saveFile: File,
+        val segmentsFile: File,
+        val segments: DownloadTaskSegments
+    ) {
+        // 未结束的分段数量
+        private val remaining = AtomicInteger(0)
+
+        // 是否已经失败
+        private val isFailure = AtomicBoolean(false)
+
+        // 等待开始的分段
+        private val pending = LinkedList<DownloadTaskSegment>()
+
+        // 分段的Call列表
+        private val calls = ArrayList<Call>()
+
+        fun start(response: Response) {
+            val unfinished = segments.segments.filter { !it.isCompleted }
+            handler.updateProgress(segments.total, segments.current)
+            if (unfinished.isEmpty()) {
+                onSegmentsSuccess(response)
+                return
+            }
+            remaining.set(unfinished.size)
+            synchronized(pending) { pending.addAll(unfinished) }
+            // 同时进行的分段数量不超过任务的分段数量，其余分段在前面的分段完成后依次开始
+            val concurrency = minOf(unfinished.size, maxOf(task.segmentCount, 1))
+            // 每个分段使用一个连接，确保共享调度器不会让分段请求排队
+            NetworkClientFactory.ensureMaxRequestsPerHost(
+                managerData.httpClient,
+                concurrency * maxOf(if (managerData.hostLanes > 0) managerData.hostLanes else managerData.lanes, 1)
+            )
+            repeat(concurrency) { startNextSegment() }
+        }
+
+        /**
+         * 开始下一个等待中的分段
+         */
+        private fun startNextSegment() {
+            if (task.isStop || isFailure.get() || handler.isStale) return
+            val segment = synchronized(pending) { pending.poll() } ?: return
+            managerData.httpClient.newCall(Request.Builder().apply {
+                header("Range", segment.rangeHeader)
+                url(task.url)
+                tag(NetworkTask::class.java, task)
+                (task.onCustomRequest ?: managerData.onCustomRequest)?.invoke(task, this)
+            }.build()).apply {
+                synchronized(calls) { calls.add(this) }
+                // 附加到任务，暂停或取消任务时一并取消
+                if (!task.attachCall(this)) {
+                    onSegmentFailure(null, null)
+                    return
+                }
+                enqueue(object : Callback {
+                    override fun onFailure(call: Call, e: IOException) {
+                        task.detachCall(call)
+                        onSegmentFailure(e, null)
+                    }
+
+                    override fun onResponse(call: Call, response: Response) {
+                        downloadSegment(segment, response)
+                        task.detachCall(call)
+                    }
+                })
+            }
+        }
+
+        /**
+         * 下载分段并写入到文件的对应位置
+         */
+        private fun downloadSegment(segment: DownloadTaskSegment, response: Response) {
+            var source: BufferedSource? = null
+            var file: RandomAccessFile? = null
+            try {
+                if (response.code != HttpURLConnection.HTTP_PARTIAL) {
+                    throw Exception("download task segment ${segment.index} not partial content")
+                }
+                val responseBody = response.body ?: throw Exception("response body not empty")
+                file = RandomAccessFile(saveFile, "rw")
+                val channel = file.channel
+                source = responseBody.source()
+                var len = 0L
+                val byteCount = managerData.perByteCount.toLong()
+                // 从source直接转移到文件的对应位置
+                while (!segment.isCompleted && channel.transferFrom(
+                        source,
+                        segment.position,
+                        minOf(byteCount, segment.length - segment.current)
+                    ).also { len = it } > 0L
+                ) {
+                    if (task.isStop || isFailure.get() || handler.isStale) {
+                        throw Exception("task is stop")
+                    }
+                    segment.current += len
+                    // 限速
+                    task.acquireBandwidth(len, managerData.rateLimiter)
+                    // 更新进度回调，并同步保存分段记录
+                    if (handler.updateProgress(segments.total, segments.current)) {
+                        segments.save(segmentsFile)
                     }
-                    // 更新到通知栏
-                    managerData.updateNotification(task)
-                    managerData.onEventTaskUpdateByProgress(task)
                 }
+                if (!segment.isCompleted) {
+                    throw Exception("download task segment ${segment.index} incomplete")
+                }
+                if (remaining.decrementAndGet() == 0 && !isFailure.get()) {
+                    onSegmentsSuccess(response)
+                } else {
+                    startNextSegment()
+                }
+            } catch (e: Exception) {
+                onSegmentFailure(e, response)
+                LOG("DownLoadTask segment ${segment.index} 失败回调" + e.message)
+            } finally {
+                source?.tryClose()
+                file?.tryClose()
+            }
+        }
 
+        /**
+         * 全部分段下载完成
+         */
+        private fun onSegmentsSuccess(response: Response) {
+            if (handler.isStale) return
+            try {
+                // 校验并重命名为保存文件
+                task.verifyAndPromote()
+            } catch (e: Exception) {
+                segmentsFile.delete()
+                handler.downloadFailure(e, response)
+                return
+            }
+            segmentsFile.delete()
+            handler.updateProgress(segments.total, segments.total, true)
+            handler.downloadSuccess(response)
+        }
+
+        /**
+         * 分段下载失败（仅回调一次，并取消其他分段，已下载的分段进度会保存到记录中）
+         * 任务已被重新运行时，本执行器已过期，不再保存记录与回调，避免覆盖新的执行器的状态
+         */
+        private fun onSegmentFailure(e: Exception?, response: Response?) {
+            if (!isFailure.compareAndSet(false, true)) return
+            synchronized(calls) { calls.forEach { it.cancel() } }
+            if (handler.isStale) {
+                response?.close()
+                return
+            }
+            segments.save(segmentsFile)
+            handler.downloadFailure(e, response)
+        }
+    }
+
+    /**
+     * 下载任务的回调处理（成功、失败、进度）
+     */
+    private inner class DownloadTaskHandler(val task: DownloadTask) {
+
+        // 上一次更新时间（用于与更新间隔做对比）
+        private var lastProgressUpdateTime: Long = 0
+
+        // 上一次检查更新间隔时的进度（用于与更新字节间隔做对比）
+        private var lastProgressCheckCurrent: Long = 0
+
+        // 更新字节间隔
+        private val updateBytes = managerData.progressUpdateBytes
+
+        // 更新间隔
+        private val updateInterval =
+            task.progressUpdateInterval ?: managerData.progressUpdateInterval
+
+        // 重试策略
+        private val retryPolicy: NetworkRetryPolicy?
+            get() = task.retryPolicy ?: managerData.retryPolicy
+
+        // 本次运行的代数
+        private var generation = -1
 
+        // 任务是否已被重新运行（此时本次运行遗留的回调将被忽略）
+        val isStale: Boolean get() = task.runGeneration != generation
+
+        /**
+         * 更新任务状态为运行中，并记录本次运行的代数
+         */
+        fun onRunning(call: Call?) {
+            task.onChangeStateToRunning(call)
+            generation = task.runGeneration
+        }
+
+        //下载任务成功回调
+        fun downloadSuccess(response: Response) {
+            if (task.isStop || isStale) return
+            retryPolicy?.onSuccess(task)
+            // 更新状态
+            task.onChangeStateToSuccess()
+            // 回调
+            APP.mainHandler.post {
+                task.onTaskSuccess?.invoke(task, response)
+                // 合并下载的共享任务仅回调自身（由管理器数据分发到订阅的任务）
+                if (task !is DownloadCoalescedTask) managerData.onTaskSuccess?.invoke(task, response)
+            }
+            // 更新到通知栏
+            managerData.updateNotification(task)
+            managerData.onEventTaskUpdateByState(task)
+        }
+
+        //下载任务失败（含取消、暂停），若符合重试策略则等待后从断点重新下载
+        fun downloadFailure(e: Exception?, response: Response?) {
+            if (isStale) {
+                response?.close()
+                return
+            }
+            val retryPolicy = retryPolicy
+            val delayMillis = retryPolicy?.nextRetryDelay(task, e, response)
+            if (retryPolicy == null || delayMillis == null) {
+                retryPolicy?.onFailure(task)
+                onFailure(e, response)
+                return
+            }
+            LOG("DownLoadTask ${task.id} retry ${task.retryMetrics.attempts} after ${delayMillis}ms")
+            response?.close()
+            task.waitForRetry(delayMillis, onRetry = {
+                task.onChangeStateToNone()
+                download(task, false)
+            }, onStop = {
+                retryPolicy.onFailure(task)
+                onFailure(e, response)
             })
         }
-        return true
+
+        //下载任务失败（含取消、暂停）回调
+        private fun onFailure(e: Exception?, response: Response?) {
+            // 更新状态
+            task.onChangeStateToFailureIfNotStop()
+            // 回调
+            APP.runOnUiThread {
+                task.onTaskFailure?.invoke(task, e, response)
+                if (task !is DownloadCoalescedTask) managerData.onTaskFailure?.invoke(task, e, response)
+            }
+            // 更新到通知栏
+            managerData.updateNotification(task)
+            managerData.onEventTaskUpdateByState(task)
+        }
+
+        /**
+         * 下载任务的文件进度回调，返回是否进行了回调
+         */
+        @Synchronized
+        fun updateProgress(total: Long, current: Long, isEnd: Boolean = false): Boolean {
+            if (isStale) return false
+            // 判断字节间隔，未达到字节间隔时无需判断时间间隔
+            val checkBytes = current - lastProgressCheckCurrent
+            if (!isEnd && checkBytes >= 0 && checkBytes < updateBytes) return false
+            lastProgressCheckCurrent = current
+            // 判断回调间隔，避免短时间内多次回调
+            if (!isEnd && System.currentTimeMillis() - lastProgressUpdateTime < updateInterval) return false
+            lastProgressUpdateTime = System.currentTimeMillis()
+            // 避免相同进度重复回调
+            if (task.latestProgressCurrent == current) return false
+            // 写入最新进度，由管理器数据合并后在主线程中按帧分发
+            task.postProgress(total, current)
+            managerData.postProgress(task)
+            return true
+        }
     }
 
 
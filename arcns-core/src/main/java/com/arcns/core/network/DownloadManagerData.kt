@@ -2,22 +2,25 @@ package com.arcns.core.network
 
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
+import com.arcns.core.APP
 import com.arcns.core.app.NotificationOptions
 import com.arcns.core.app.cancelNotification
+import com.arcns.core.file.tryClose
 import com.arcns.core.util.*
+import com.arcns.xfile.FileUtil
 import okhttp3.OkHttpClient
 import okhttp3.Request
+import okhttp3.Response
+import java.io.RandomAccessFile
 import java.util.*
-import java.util.concurrent.TimeUnit
 import kotlin.collections.ArrayList
 import kotlin.collections.forEachIndexed
 
 class DownloadManagerData(
-    // OkHttpClient
-    val httpClient: OkHttpClient = OkHttpClient.Builder().connectTimeout(60, TimeUnit.SECONDS)
-        .build(),
-    // 每次下载的字节数
-    var perByteCount: Int = 2048,
+    // OkHttpClient（默认使用共享连接池与调度器的客户端）
+    httpClient: OkHttpClient = NetworkClientFactory.sharedClient,
+    // 每次下载的字节数（数据以Okio Segment为单位转移，建议为8192的倍数）
+    var perByteCount: Int = DOWNLOAD_PER_BYTE_COUNT,
     // 下载任务成功回调
     var onTaskSuccess: OnTaskSuccess<DownloadTask>? = null,
     //下载任务失败回调
@@ -26,27 +29,94 @@ class DownloadManagerData(
     var onProgressUpdate: OnDownloadProgressUpdate? = null,
     // 下载进度更新时间间隔
     var progressUpdateInterval: Long = 1000,
+    // 下载进度更新字节间隔（每下载该字节数后才判断一次时间间隔，减少进度判断次数）
+    var progressUpdateBytes: Long = DOWNLOAD_PROGRESS_UPDATE_BYTES,
     // 下载通知配置（禁用优先级高于任务配置，但内容优先级低于任务配置）
     var notificationOptions: NotificationOptions? = null,
     // 自定义请求（Request）回调，能够使用该回调对请求进行操作
     var onCustomRequest: ((DownloadTask, Request.Builder) -> Unit)? = null,
-    // 下载通道数量，0为无限制，若当前下载数量超过通道数量，则超过的任务会排队等待
+    // 下载通道数量，0为无限制，若当前下载数量超过通道数量，则超过的任务会按优先级排队等待
     var lanes: Int = 3,
+    // 每个主机的下载通道数量，0为无限制
+    var hostLanes: Int = 0,
+    // 全局限速器（所有下载任务共用，可与上传管理器共用同一个限速器，可在运行时修改bytesPerSecond）
+    val rateLimiter: NetworkRateLimiter = NetworkRateLimiter(),
+    // 重试策略（若为null，则失败后不重试，任务可单独设置）
+    var retryPolicy: NetworkRetryPolicy? = null,
+    // 网络条件来源（若不为null，则设置了约束的任务会根据网络条件自动暂停与恢复）
+    val constraintSource: NetworkConditionSource? = null,
+    // 网络请求统计（若不为null，则自动附加到httpClient，并统计各任务的传输速度）
+    val metrics: NetworkMetrics? = null,
+    // 是否合并相同地址的下载（若为true，则同时下载相同地址的任务只建立一次传输，完成后复制到各自的保存路径）
+    var isCoalesceDownloads: Boolean = false,
     // 任务全部完成回调
-    var onAllTasksCompleted: ((List<DownloadTask>) -> Unit)? = null
+    var onAllTasksCompleted: ((List<DownloadTask>) -> Unit)? = null,
+    // 任务日志（若不为null，则任务列表、状态与断点会持久化到日志中，进程被杀死后可通过restoreTasks恢复）
+    val journal: DownloadTaskJournal? = null
 ) {
+    // 实际使用的OkHttpClient（附加网络请求统计后与原客户端共享连接池与调度器）
+    val httpClient: OkHttpClient = metrics?.attach(httpClient) ?: httpClient
+
+    init {
+        // 每个主机的最大请求数量不小于通道数量，避免任务在调度器中排队
+        NetworkClientFactory.ensureMaxRequestsPerHost(httpClient, if (hostLanes > 0) hostLanes else lanes)
+    }
+
     val uniqueID: String = UUID.randomUUID().toString()
 
+    // 任务调度器
+    private val scheduler = NetworkTaskScheduler<DownloadTask>()
+
+    // 已下发（运行中）的任务数量
+    val runningTasksNumber: Int get() = scheduler.runningCount
+
     // 任务列表
     private var _tasks =
         MutableLiveData<ArrayList<DownloadTask>>().apply { fastValue = ArrayList() }
     val tasksLiveData: LiveData<ArrayList<DownloadTask>> = _tasks
     val tasks: ArrayList<DownloadTask> get() = _tasks.value ?: arrayListOf()
 
+    // 网络条件约束控制器
+    private val constraintController = constraintSource?.let {
+        NetworkConstraintController(
+            it,
+            { tasks },
+            { task -> pause(task, NetworkTaskStopReason.Constraint) },
+            { task -> download(task) }
+        )
+    }
+
+    // 合并下载的共享任务（包含正在复制文件的共享任务）
+    private val coalescedTasks = ArrayList<DownloadCoalescedTask>()
+
     // 任务更新事件
     private var _eventTaskUpdate = MutableLiveData<Event<DownloadTask>>()
     var eventTaskUpdate: LiveData<Event<DownloadTask>> = _eventTaskUpdate
 
+    // 批量任务更新事件（批量下载时代替逐个的任务更新事件，只通知一次）
+    private var _eventTasksUpdate = MutableLiveData<Event<List<DownloadTask>>>()
+    var eventTasksUpdate: LiveData<Event<List<DownloadTask>>> = _eventTasksUpdate
+
+    // 任务进度批量更新（每帧最多一次，值为本帧更新的任务列表快照）
+    private var _tasksProgressUpdate = MutableLiveData<List<DownloadTask>>()
+    var tasksProgressUpdate: LiveData<List<DownloadTask>> = _tasksProgressUpdate
+
+    // 进度分发中心
+    private val progressHub = NetworkProgressHub<DownloadTask>(
+        onDispatchItem = { task ->
+            // 更新到任务中，然后进行回调
+            task.updateProgress(task.latestProgressTotal, task.latestProgressCurrent).run {
+                onProgressUpdate?.invoke(task, this)
+            }
+            // 更新到通知栏
+            updateNotification(task)
+        },
+        onDispatchBatch = {
+            _tasks.value = tasks
+            _tasksProgressUpdate.value = ArrayList(it)
+        }
+    )
+
     // 任务全部完成
     private var _eventAllTasksCompleted = MutableLiveData<Event<List<DownloadTask>>>()
     var eventAllTasksCompleted: LiveData<Event<List<DownloadTask>>> = _eventAllTasksCompleted
@@ -56,6 +126,14 @@ class DownloadManagerData(
     var eventDownloadManagerNotify: LiveData<Event<DownloadManagerNotify>> =
         _eventDownloadManagerNotify
 
+    /**
+     * 发送任务管理器操作指令（非主线程中切换到主线程逐个设置，避免postValue合并连续的指令而丢失前面的指令）
+     */
+    private fun sendManagerNotify(notify: DownloadManagerNotify) {
+        if (isMainThread) _eventDownloadManagerNotify.value = Event(notify)
+        else APP.mainHandler.post { _eventDownloadManagerNotify.value = Event(notify) }
+    }
+
 
     // 根据任务状态获取任务数量
     fun getTasksNumberOnState(state: TaskState): Int = getTasksOnState(state).count()
@@ -67,16 +145,44 @@ class DownloadManagerData(
 
     // 任务状态更新通知
     fun onEventTaskUpdateByState(task: DownloadTask) {
+        if (task is DownloadCoalescedTask) {
+            onCoalescedTaskUpdateByState(task)
+            return
+        }
+        journal?.state(task)
         _tasks.fastValue = tasks
         _eventTaskUpdate.fastValue = Event(task)
+        if (task.isStop) scheduler.onFinish(task)
         if (task.isStop && task.stopReason != NetworkTaskStopReason.HumanAll) {
             downloadWaitTasks()
-            // 全部任务已完成
-            if (_tasks.value?.firstOrNull { it.state == TaskState.None || it.isRunning || it.isWait } == null) {
-                _eventAllTasksCompleted.fastEventValue = _tasks.value!!
-                onAllTasksCompleted?.invoke(_tasks.value!!)
+            checkAllTasksCompleted()
+        }
+    }
+
+    // 批量任务状态更新通知（任务列表与事件只更新一次）
+    private fun onEventTasksUpdateByState(tasks: List<DownloadTask>) {
+        journal?.stateAll(tasks)
+        _tasks.fastValue = this.tasks
+        _eventTasksUpdate.fastEventValue = tasks
+        var isStopped = false
+        tasks.forEach {
+            if (it.isStop) {
+                scheduler.onFinish(it)
+                isStopped = true
             }
         }
+        if (isStopped) {
+            downloadWaitTasks()
+            checkAllTasksCompleted()
+        }
+    }
+
+    // 检查任务是否已全部完成
+    private fun checkAllTasksCompleted() {
+        if (_tasks.value?.firstOrNull { it.state == TaskState.None || it.isRunning || it.isWait } == null) {
+            _eventAllTasksCompleted.fastEventValue = _tasks.value!!
+            onAllTasksCompleted?.invoke(_tasks.value!!)
+        }
     }
 
     // 任务进度更新通知
@@ -85,36 +191,102 @@ class DownloadManagerData(
         _eventTaskUpdate.fastValue = Event(task)
     }
 
-    // 下载排队等待中的任务
+    // 提交任务的最新进度（下载线程中调用，进度会合并后在主线程中按帧分发）
+    fun postProgress(task: DownloadTask) {
+        if (task is DownloadCoalescedTask) {
+            // 共享任务的进度同步到订阅的任务
+            task.subscriberList.forEach {
+                it.postProgress(task.latestProgressTotal, task.latestProgressCurrent)
+                progressHub.post(it)
+            }
+            return
+        }
+        journal?.run {
+            // 分段下载的断点由分段记录负责，日志中仅记录单连接下载已写入文件的长度
+            progress(
+                task,
+                if (task.isSegmentDownload) 0 else task.writeFile?.length() ?: 0,
+                task.latestProgressTotal
+            )
+        }
+        progressHub.post(task)
+    }
+
+    // 下载排队等待中的任务（按优先级出队，直到通道已满，出队的任务合并为一个下载指令发送）
+    @Synchronized
     private fun downloadWaitTasks() {
-        val quota = if (lanes < 0) null else lanes - tasks.count { it.isRunning }
-        if (quota != null && quota <= 0) return
-        var quantity = 0
         LOG("task downloadWaitTasks")
-        tasks.forEach {
-            if (it.isWait) {
-                it.onChangeStateToNone()
-                _eventDownloadManagerNotify.fastEventValue =
-                    DownloadManagerNotify(DownloadManagerNotifyType.Download, it)
-                onEventTaskUpdateByState(it)
-                quantity++
-            }
-            if (quota != null && quantity >= quota) {
-                return
+        val downloadTasks = ArrayList<DownloadTask>()
+        while (true) {
+            val task = scheduler.poll(lanes, hostLanes) ?: break
+            // 不满足网络条件约束的任务直接暂停，待满足后自动恢复
+            if (constraintController?.isSatisfied(task) == false) {
+                scheduler.onFinish(task)
+                stop(task, TaskState.Pause, NetworkTaskStopReason.Constraint)
+                continue
             }
+            task.onChangeStateToNone()
+            downloadTasks.add(task)
         }
+        if (downloadTasks.isEmpty()) return
+        // 出队的任务只发送一次指令
+        sendManagerNotify(
+            DownloadManagerNotify(
+                DownloadManagerNotifyType.Download,
+                downloadTasks.first(),
+                downloadTasks
+            )
+        )
+        downloadTasks.forEach { onEventTaskUpdateByState(it) }
     }
 
 
     /**
-     * 下载文件
+     * 下载文件列表（一次遍历完成校验、加入列表与下发，任务管理器指令与任务更新事件均只发送一次），返回加入的任务数量
      */
     @Synchronized
     fun download(
         tasks: List<DownloadTask>
-    ): Int = tasks.filter {
-        download(it)
-    }.size
+    ): Int {
+        val addedTasks = addTasks(tasks)
+        if (addedTasks.isEmpty()) return 0
+        val batch = DispatchBatch()
+        addedTasks.forEach { task ->
+            if (constraintController?.isSatisfied(task) == false) {
+                // 不满足网络条件约束，暂停任务，待满足后自动恢复
+                task.forceStop(TaskState.Pause, NetworkTaskStopReason.Constraint)
+                task.onTaskFailure?.invoke(task, null, null)
+                onTaskFailure?.invoke(task, null, null)
+                batch.notificationTasks.add(task)
+            } else if (isCoalesceDownloads && task.isCoalescable) {
+                // 订阅相同地址的共享任务
+                subscribeCoalescedTask(task, batch)
+            } else {
+                dispatch(task, batch)
+            }
+        }
+        // 批量任务只发送一次指令
+        if (batch.downloadTasks.isNotEmpty()) {
+            sendManagerNotify(
+                DownloadManagerNotify(
+                    DownloadManagerNotifyType.Download,
+                    batch.downloadTasks.first(),
+                    batch.downloadTasks,
+                    batch.notificationTasks
+                )
+            )
+        } else if (batch.notificationTasks.isNotEmpty()) {
+            sendManagerNotify(
+                DownloadManagerNotify(
+                    DownloadManagerNotifyType.UpdateNotification,
+                    batch.notificationTasks.first(),
+                    batch.notificationTasks
+                )
+            )
+        }
+        onEventTasksUpdateByState(addedTasks)
+        return addedTasks.size
+    }
 
 
     /**
@@ -123,18 +295,156 @@ class DownloadManagerData(
     @Synchronized
     fun download(task: DownloadTask): Boolean {
         if (!addTask(task)) return false
-        if (lanes <= 0 || tasks.count { it.isRunning } < lanes) {
+        if (constraintController?.isSatisfied(task) == false) {
+            // 不满足网络条件约束，暂停任务，待满足后自动恢复
+            stop(task, TaskState.Pause, NetworkTaskStopReason.Constraint)
+        } else if (isCoalesceDownloads && task.isCoalescable) {
+            // 订阅相同地址的共享任务
+            subscribeCoalescedTask(task)
+        } else {
+            dispatch(task)
+        }
+        onEventTaskUpdateByState(task)
+        return true
+    }
+
+    /**
+     * 下发任务，若当前下载数量超过通道数量，则排队等待（batch不为null时，指令由调用方合并发送）
+     */
+    private fun dispatch(task: DownloadTask, batch: DispatchBatch? = null) {
+        if (scheduler.canDispatch(task, lanes, hostLanes)) {
             // 下发任务管理器下载指令
-            _eventDownloadManagerNotify.fastEventValue =
-                DownloadManagerNotify(DownloadManagerNotifyType.Download, task)
+            scheduler.onDispatch(task)
+            if (batch != null) batch.downloadTasks.add(task)
+            else sendManagerNotify(DownloadManagerNotify(DownloadManagerNotifyType.Download, task))
         } else {
-            // 若当前下载数量超过通道数量，则超过的任务会排队等待
+            // 若当前下载数量超过通道数量，则超过的任务会按优先级排队等待
             task.onChangeStateToWait()
-            _eventDownloadManagerNotify.fastEventValue =
-                DownloadManagerNotify(DownloadManagerNotifyType.UpdateNotification, task)
+            scheduler.enqueue(task)
+            if (batch != null) batch.notificationTasks.add(task)
+            else sendManagerNotify(DownloadManagerNotify(DownloadManagerNotifyType.UpdateNotification, task))
         }
+    }
+
+    /**
+     * 订阅相同地址的共享任务，若不存在则创建并下发共享任务
+     */
+    private fun subscribeCoalescedTask(task: DownloadTask, batch: DispatchBatch? = null) {
+        var carrier = synchronized(coalescedTasks) {
+            coalescedTasks.firstOrNull { it.url == task.url && it.subscribe(task) }
+        }
+        if (carrier == null) {
+            carrier = DownloadCoalescedTask(task).apply {
+                onTaskSuccess = { _, response -> onCoalescedTaskSuccess(this, response) }
+                onTaskFailure = { _, e, response -> onCoalescedTaskFailure(this, e, response) }
+                subscribe(task)
+            }
+            synchronized(coalescedTasks) { coalescedTasks.add(carrier) }
+            dispatch(carrier, batch)
+        }
+        // 订阅的任务跟随共享任务的状态
+        if (carrier.isWait) task.onChangeStateToWait() else task.onChangeStateToRunning(null)
+    }
+
+    /**
+     * 退订共享任务，返回退订的共享任务，若任务未订阅则返回null
+     */
+    private fun unsubscribeCoalescedTask(task: DownloadTask): DownloadCoalescedTask? =
+        synchronized(coalescedTasks) { coalescedTasks.firstOrNull { it.unsubscribe(task) } }
+
+    /**
+     * 共享任务状态更新（不加入任务列表，仅同步订阅任务的状态与调度通道）
+     */
+    private fun onCoalescedTaskUpdateByState(carrier: DownloadCoalescedTask) {
+        if (carrier.isStop) {
+            scheduler.onFinish(carrier)
+            if (carrier.stopReason != NetworkTaskStopReason.HumanAll) downloadWaitTasks()
+            return
+        }
+        if (carrier.isWait) return
+        carrier.subscriberList.forEach {
+            if (it.isWait) {
+                it.onChangeStateToRunning(null)
+                onEventTaskUpdateByState(it)
+            }
+        }
+    }
+
+    /**
+     * 共享任务下载成功，将文件复制到各订阅任务的保存路径（在下载线程中复制）
+     */
+    private fun onCoalescedTaskSuccess(carrier: DownloadCoalescedTask, response: Response) {
+        carrier.finish()
+        httpClient.dispatcher.executorService.execute {
+            val file = carrier.saveFile
+            while (true) {
+                val task = carrier.pollSubscriber() ?: break
+                try {
+                    if (file == null || !file.exists()) throw Exception("download coalesced file not exists")
+                    task.completeSaveFullFileName(response.fileName)
+                    val writeFile = task.writeFile ?: throw Exception("download task write file not empty")
+                    FileUtil.mkdirIfNotExists(task.saveDirPath)
+                    file.copyTo(writeFile, true)
+                    // 校验并重命名为保存文件
+                    task.verifyAndPromote()
+                    if (task.isStop) throw Exception("task is stop")
+                    task.postProgress(file.length(), file.length())
+                    progressHub.post(task)
+                    task.onChangeStateToSuccess()
+                    APP.mainHandler.post {
+                        task.onTaskSuccess?.invoke(task, response)
+                        onTaskSuccess?.invoke(task, response)
+                    }
+                    updateNotification(task)
+                    onEventTaskUpdateByState(task)
+                } catch (e: Exception) {
+                    LOG("DownLoadTask 合并下载复制失败" + e.message)
+                    onSubscriberFailure(task, e, response)
+                }
+            }
+            // 临时文件属于该共享任务（文件名包含共享任务id），不会删除之后创建的共享任务的文件
+            carrier.deleteSaveFiles()
+            synchronized(coalescedTasks) { coalescedTasks.remove(carrier) }
+        }
+    }
+
+    /**
+     * 共享任务下载失败（含取消），订阅的任务一并失败并删除已下载的数据（临时文件仅属于该共享任务，无法被之后的共享任务续传）
+     */
+    private fun onCoalescedTaskFailure(
+        carrier: DownloadCoalescedTask,
+        e: Exception?,
+        response: Response?
+    ) {
+        carrier.finish()
+        synchronized(coalescedTasks) { coalescedTasks.remove(carrier) }
+        while (true) {
+            val task = carrier.pollSubscriber() ?: break
+            onSubscriberFailure(task, e, response)
+        }
+        carrier.deleteSaveFiles()
+    }
+
+    /**
+     * 删除共享任务的保存文件、临时文件及分段记录
+     */
+    private fun DownloadCoalescedTask.deleteSaveFiles() {
+        saveFile?.delete()
+        deleteWriteFile()
+        segmentsFile?.delete()
+    }
+
+    /**
+     * 订阅任务失败回调
+     */
+    private fun onSubscriberFailure(task: DownloadTask, e: Exception?, response: Response?) {
+        task.onChangeStateToFailureIfNotStop()
+        APP.runOnUiThread {
+            task.onTaskFailure?.invoke(task, e, response)
+            onTaskFailure?.invoke(task, e, response)
+        }
+        updateNotification(task)
         onEventTaskUpdateByState(task)
-        return true
     }
 
     /**
@@ -147,6 +457,7 @@ class DownloadManagerData(
                 if (it.isStop) {
                     tasks.removeAt(index)
                     tasks.add(index, task)
+                    journal?.add(task)
                     return true
                 }
                 LOG("task 任务已存在 ")
@@ -159,9 +470,84 @@ class DownloadManagerData(
             }
         }
         tasks.add(task)
+        journal?.add(task)
         return true
     }
 
+    /**
+     * 批量添加任务到任务列表（先建立id与保存路径索引，再一次遍历完成校验），返回加入的任务
+     */
+    private fun addTasks(newTasks: List<DownloadTask>): List<DownloadTask> {
+        val tasks = tasks
+        val indexes = HashMap<String, Int>(tasks.size + newTasks.size)
+        val usedSaveFilePaths = HashSet<String>()
+        tasks.forEachIndexed { index, it ->
+            indexes[it.id] = index
+            if (!it.isStop) it.saveFilePath?.let { path -> usedSaveFilePaths.add(path) }
+        }
+        val addedTasks = ArrayList<DownloadTask>(newTasks.size)
+        newTasks.forEach { task ->
+            val index = indexes[task.id]
+            if (index != null) {
+                // 任务已存在
+                if (!tasks[index].isStop) {
+                    LOG("task 任务已存在 ")
+                    return@forEach
+                }
+                tasks[index] = task
+            } else {
+                // 任务保存路径正在被使用
+                val saveFilePath = task.saveFilePath
+                if (saveFilePath != null && usedSaveFilePaths.contains(saveFilePath)) {
+                    LOG("task 任务保存路径正在被使用 $saveFilePath")
+                    return@forEach
+                }
+                indexes[task.id] = tasks.size
+                tasks.add(task)
+            }
+            task.saveFilePath?.let { usedSaveFilePaths.add(it) }
+            addedTasks.add(task)
+        }
+        journal?.addAll(addedTasks)
+        return addedTasks
+    }
+
+    /**
+     * 从任务日志中恢复未完成的任务（通常在应用启动时调用），返回恢复的任务数量
+     * 暂停与失败的任务会恢复为原状态，其余任务会重新开始下载，并从日志中已确认写入的长度处继续
+     */
+    @Synchronized
+    fun restoreTasks(onRestoreTask: ((DownloadTask) -> Unit)? = null): Int {
+        val journal = journal ?: return 0
+        var quantity = 0
+        journal.unfinishedEntries.forEach { entry ->
+            if (findTaskByID(entry.id) != null) return@forEach
+            val task = entry.toDownloadTask()
+            // 丢弃日志中未确认的数据，仅保留已确认写入文件的部分
+            if (!task.isSegmentDownload) task.writeFile?.let {
+                if (it.exists() && it.length() > entry.offset) {
+                    RandomAccessFile(it, "rw").apply {
+                        setLength(entry.offset)
+                        tryClose()
+                    }
+                }
+            }
+            // 恢复任务回调，可在此设置通知栏、回调等未持久化的配置
+            onRestoreTask?.invoke(task)
+            when (entry.state) {
+                TaskState.Pause, TaskState.Failure -> {
+                    if (!addTask(task)) return@forEach
+                    task.forceStop(entry.state, NetworkTaskStopReason.HumanAll)
+                    journal.state(task)
+                    _tasks.fastValue = tasks
+                }
+                else -> if (!download(task)) return@forEach
+            }
+            quantity++
+        }
+        return quantity
+    }
+
     /**
      * 删除任务
      */
@@ -177,6 +563,7 @@ class DownloadManagerData(
                 if (task.isStop) task.cancelNotification()
             }
             tasks.remove(task)
+            journal?.remove(task)
             if (isCancelTask && !task.isStop) cancel(task, cancelReason)
 //            onEventTaskUpdateByState(task)
             return true
@@ -224,19 +611,29 @@ class DownloadManagerData(
         state: TaskState,
         reason: NetworkTaskStopReason = NetworkTaskStopReason.Human
     ) {
-        if (task.isRunning) {
+        // 订阅共享任务的任务仅退订，不影响共享任务的传输
+        val carrier = unsubscribeCoalescedTask(task)
+        if (task.isRunning && carrier == null) {
             LOG("task ${task.id} stop isRunning")
             task.stop(state, reason)
         } else {
             LOG("task ${task.id} stop forceStop")
             task.forceStop(state, reason)
             task.onTaskFailure?.invoke(task, null, null)
-            onTaskFailure?.invoke(task, null, null)
+            if (task !is DownloadCoalescedTask) onTaskFailure?.invoke(task, null, null)
             // 更新到通知栏
-            _eventDownloadManagerNotify.fastEventValue =
-                DownloadManagerNotify(DownloadManagerNotifyType.UpdateNotification, task)
+            sendManagerNotify(DownloadManagerNotify(DownloadManagerNotifyType.UpdateNotification, task))
             onEventTaskUpdateByState(task)
         }
+        // 全部退订后取消共享任务
+        if (carrier?.isEmpty == true) stop(carrier, TaskState.Cancel, reason)
+    }
+
+    /**
+     * 释放网络条件约束控制器（停止监听网络条件变化）
+     */
+    fun releaseConstraintController() {
+        constraintController?.release()
     }
 
     /**
@@ -276,15 +673,29 @@ class DownloadManagerData(
      * 是否包含指定任务
      */
     fun containsTask(task: DownloadTask): Boolean = tasks.contains(task)
+
+    // 批量下发的任务（合并为一次任务管理器指令）
+    private class DispatchBatch {
+        val downloadTasks = ArrayList<DownloadTask>()
+        val notificationTasks = ArrayList<DownloadTask>()
+    }
 }
 
+// 默认每次下载的字节数
+const val DOWNLOAD_PER_BYTE_COUNT = 64 * 1024
+
+// 默认的下载进度更新字节间隔
+const val DOWNLOAD_PROGRESS_UPDATE_BYTES = 256 * 1024L
+
 // 下发任务管理器的操作指令类型
 enum class DownloadManagerNotifyType {
     Download, UpdateNotification
 }
 
-// 下发任务管理器的操作指令
+// 下发任务管理器的操作指令（批量下载时tasks包含全部任务，notificationTasks为同时需要更新通知栏的任务）
 data class DownloadManagerNotify(
     val type: DownloadManagerNotifyType,
-    val task: DownloadTask
+    val task: DownloadTask,
+    val tasks: List<DownloadTask> = listOf(task),
+    val notificationTasks: List<DownloadTask> = emptyList()
 )
\ No newline at end of file
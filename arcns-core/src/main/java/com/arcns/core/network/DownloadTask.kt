@@ -13,6 +13,9 @@ import com.arcns.core.util.string
 import com.arcns.xfile.FileUtil
 import okhttp3.OkHttpClient
 import okhttp3.Request
+import okio.BufferedSink
+import okio.appendingSink
+import okio.buffer
 import java.io.File
 import java.io.FileOutputStream
 import java.io.OutputStream
@@ -29,13 +32,21 @@ open class DownloadTask(
     var showNameWhenEmpty: String? = R.string.text_download_progress_notification_default_show_name_when_empty.string,// 当showName、saveFullShowName为null时在通知栏中显示的名称
     var isBreakpointResume: Boolean = true, //是否开启断点续传（若服务器无该功能，则会自动重新开始下载）
     var onCustomRequest: ((DownloadTask, Request.Builder) -> Unit)? = null, // 自定义请求（Request）回调，能够使用该回调对请求进行操作
+    var segmentCount: Int = 1, // 分段下载的连接数量（大于1且服务器支持Range寻址时，启用多连接分段下载）
+    var segmentMinLength: Long = DOWNLOAD_TASK_SEGMENT_MIN_LENGTH, // 每个分段的最小长度（文件较小时会自动减少分段数量）
+    priority: Int = 0, // 任务优先级（数值越大越优先，相同优先级按加入顺序排队）
+    var digestAlgorithm: DownloadDigestAlgorithm? = null, // 校验算法（不为null时，先下载到临时文件，校验通过后再重命名为保存文件）
+    var expectedDigest: String? = null, // 期望的校验值（十六进制，为null时仅计算校验值不做比对）
+    var cache: DownloadCache? = null, // 下载缓存（不为null时使用条件请求验证缓存，适用于反复下载的小文件，启用后不使用分段下载）
+    var cacheMode: DownloadCacheMode = DownloadCacheMode.Validate, // 下载缓存模式
     notificationOptions: NotificationOptions? = null, // 通知栏配置（建议使用DownloadNotificationOptions，若不需要通知栏可使用NotificationOptions.DISABLE）
     okHttpClient: OkHttpClient? = null,// 使用自定义的OkHttpClient（若为null，则使用管理器的OkHttpClient）
     progressUpdateInterval: Long? = null,// 进度更新间隔（若为null，则使用管理器的progressUpdateInterval）
     var onDownloadProgressUpdate: OnDownloadProgressUpdate? = null,// 进度更新回调
     onTaskFailure: OnTaskFailure<DownloadTask>? = null,// 任务失败回调（包含取消、暂停、失败）
     onTaskSuccess: OnTaskSuccess<DownloadTask>? = null,// 任务成功回调
-    extraData: Any? = null // 任务中可携带的自定义数据
+    extraData: Any? = null, // 任务中可携带的自定义数据
+    id: String? = null // 任务唯一性id（若为null，则自动生成，通常仅在恢复任务时指定）
 ) : NetworkTask<DownloadTask>(
     url,
     notificationOptions,
@@ -43,7 +54,9 @@ open class DownloadTask(
     progressUpdateInterval,
     onTaskFailure,
     onTaskSuccess,
-    extraData
+    extraData,
+    id,
+    priority
 ) {
     // 完整保存的文件名称（若任务需要根据下载地址进行获取时，那在任务未运行时，该值为空）
     var saveFullFileName: String? = null
@@ -72,13 +85,34 @@ open class DownloadTask(
             return field
         }
 
-    // 当前进度
+    // 当前进度（主线程中更新）
     var currentProgress: NetworkTaskProgress? = null
         private set
 
+    // 最新的进度总长度（由下载线程写入，在进度分发时同步到currentProgress）
+    @Volatile
+    var latestProgressTotal: Long = 0
+        private set
+
+    // 最新的进度长度（由下载线程写入，在进度分发时同步到currentProgress）
+    @Volatile
+    var latestProgressCurrent: Long = -1
+        private set
+
     // 保存的文件流
     private var outputStream: OutputStream? = null
 
+    // 保存的文件Sink
+    private var sink: BufferedSink? = null
+
+    // 下载过程中的校验
+    var digest: DownloadDigest? = null
+        private set
+
+    // 下载完成后的校验值
+    var digestResult: String? = null
+        private set
+
     // 上传通知
     private var _notificationID: Int? = null
     val notificationID: Int
@@ -133,7 +167,14 @@ open class DownloadTask(
     }
 
     /**
-     * 设置当前进度
+     * 恢复保存文件名（注意此方法通常由管理器中恢复任务时调用，请勿随意调用）
+     */
+    fun onRestoreSaveFullFileName(fullFileName: String?) {
+        if (!fullFileName.isNullOrBlank()) saveFullFileName = fullFileName
+    }
+
+    /**
+     * 设置当前进度（每次创建新的进度对象，观察者可以安全地保留并对比前后的进度）
      */
     fun updateProgress(
         contentLength: Long,
@@ -144,6 +185,14 @@ open class DownloadTask(
             onDownloadProgressUpdate?.invoke(this@DownloadTask, this)
         }
 
+    /**
+     * 写入最新进度（注意此方法通常由管理器中调用，请勿随意调用）
+     */
+    fun postProgress(contentLength: Long, progress: Long) {
+        latestProgressTotal = contentLength
+        latestProgressCurrent = progress
+    }
+
     /**
      * 创建流
      */
@@ -162,6 +211,68 @@ open class DownloadTask(
         outputStream = null
     }
 
+    /**
+     * 创建写入文件的Sink（追加写入，数据以Okio Segment为单位直接转移，避免额外的数组拷贝，若启用校验则在写入时同步计算）
+     */
+    fun getSink(): BufferedSink? {
+        sink?.run { return this }
+        val writeFile = writeFile ?: return null
+        FileUtil.mkdirIfNotExists(saveDirPath)
+        val fileSink = writeFile.appendingSink()
+        sink = digestAlgorithm?.let { algorithm ->
+            val digest = DownloadDigest.restore(algorithm, digestStateFile!!, writeFile)
+            this.digest = digest
+            DownloadDigestSink(fileSink, digest).buffer()
+        } ?: fileSink.buffer()
+        return sink
+    }
+
+    /**
+     * 关闭写入文件的Sink
+     */
+    fun closeSink() {
+        sink?.tryClose()
+        sink = null
+        digest = null
+    }
+
+    /**
+     * 保存校验的计算状态（需在Sink已flush后调用）
+     */
+    fun saveDigestState() {
+        val digestStateFile = digestStateFile ?: return
+        digest?.save(digestStateFile)
+    }
+
+    /**
+     * 删除已下载的临时数据（包括写入文件与校验状态）
+     */
+    fun deleteWriteFile() {
+        writeFile?.delete()
+        digestStateFile?.delete()
+    }
+
+    /**
+     * 校验下载的文件，校验通过后将临时文件重命名为保存文件（未启用校验时直接通过）
+     */
+    fun verifyAndPromote() {
+        val algorithm = digestAlgorithm ?: return
+        val writeFile = writeFile ?: throw Exception("download task write file not empty")
+        val saveFile = saveFile ?: throw Exception("download task save file not empty")
+        // 分段下载或未经过Sink写入时，从文件中补充计算
+        val digest = digest?.takeIf { it.algorithm == algorithm } ?: DownloadDigest.create(algorithm)
+        digest.updateFromFile(writeFile)
+        val result = digest.hex()
+        digestResult = result
+        digestStateFile?.delete()
+        if (expectedDigest != null && !expectedDigest.equals(result, true)) {
+            writeFile.delete()
+            throw Exception("download task digest mismatch, expected $expectedDigest but was $result")
+        }
+        if (saveFile.exists()) saveFile.delete()
+        if (!writeFile.renameTo(saveFile)) throw Exception("download task promote file failed")
+    }
+
     /**
      * 保存的文件路径
      */
@@ -176,13 +287,39 @@ open class DownloadTask(
      */
     val saveFile: File? get() = if (saveFilePath.isNullOrBlank()) null else File(saveFilePath)
 
+    /**
+     * 下载过程中写入的文件（启用校验时为临时文件，否则为保存文件）
+     */
+    val writeFile: File?
+        get() = if (saveFilePath.isNullOrBlank()) null
+        else if (digestAlgorithm == null) File(saveFilePath)
+        else File(saveFilePath + DOWNLOAD_TEMP_FILE_SUFFIX)
+
+    /**
+     * 校验状态文件
+     */
+    val digestStateFile: File?
+        get() = writeFile?.let { File(it.absolutePath + DOWNLOAD_DIGEST_STATE_FILE_SUFFIX) }
+
+    /**
+     * 是否启用多连接分段下载
+     */
+    val isSegmentDownload: Boolean get() = isBreakpointResume && segmentCount > 1
+
+    /**
+     * 分段下载的记录文件
+     */
+    val segmentsFile: File?
+        get() = if (saveFilePath.isNullOrBlank()) null else File(saveFilePath + DOWNLOAD_TASK_SEGMENTS_FILE_SUFFIX)
+
     /**
      * 断点
      */
     val breakpoint: Long
         get() {
-            LOG("DownLoadTask断点长度：" + saveFile?.length())
-            return if (saveFile?.exists() == true) saveFile?.length() ?: 0
+            val writeFile = writeFile
+            LOG("DownLoadTask断点长度：" + writeFile?.length())
+            return if (writeFile?.exists() == true) writeFile.length()
             else 0
         }
 
@@ -0,0 +1,422 @@
+package com.arcns.core.network
+
+import com.arcns.core.file.tryClose
+import com.arcns.core.util.LOG
+import java.io.*
+import java.util.zip.CRC32
+
+// 日志记录类型
+private const val JOURNAL_RECORD_ADD: Byte = 1
+private const val JOURNAL_RECORD_STATE: Byte = 2
+private const val JOURNAL_RECORD_PROGRESS: Byte = 3
+private const val JOURNAL_RECORD_REMOVE: Byte = 4
+private const val JOURNAL_RECORD_ADD_VERSIONED: Byte = 5// 带格式版本的添加记录（JOURNAL_RECORD_ADD为旧格式，仅读取）
+
+// 任务信息的格式版本（0：最初的格式，1：增加优先级，2：增加校验算法与期望的校验值）
+private const val JOURNAL_ENTRY_VERSION_INITIAL: Byte = 0
+private const val JOURNAL_ENTRY_VERSION_PRIORITY: Byte = 1
+private const val JOURNAL_ENTRY_VERSION_DIGEST: Byte = 2
+private const val JOURNAL_ENTRY_VERSION = JOURNAL_ENTRY_VERSION_DIGEST
+
+// 单条日志记录的最大长度（超过则视为损坏）
+private const val JOURNAL_RECORD_MAX_LENGTH = 64 * 1024
+
+/**
+ * 下载任务日志（仅追加写入，用于进程被杀死后恢复任务列表、状态与断点）
+ * 每条记录的格式为：[记录长度int][记录内容][CRC32 long]，读取时遇到不完整或校验失败的记录则丢弃其后的内容
+ */
+class DownloadTaskJournal(
+    val journalFile: File,// 日志文件
+    var compactThreshold: Int = 1000// 追加的记录数量超过该值后，自动压缩日志（仅保留未完成任务的最新状态）
+) {
+    // 未完成任务的最新状态
+    private val entries = LinkedHashMap<String, DownloadTaskJournalEntry>()
+
+    // 日志文件输出流
+    private var outputStream: DataOutputStream? = null
+
+    // 上一次压缩后追加的记录数量
+    private var appendCount = 0
+
+    init {
+        load()
+    }
+
+    /**
+     * 读取日志中未完成的任务
+     */
+    @get:Synchronized
+    val unfinishedEntries: List<DownloadTaskJournalEntry>
+        get() = entries.values.map { it.copy() }
+
+    /**
+     * 记录添加任务
+     */
+    @Synchronized
+    fun add(task: DownloadTask) = add(task, true)
+
+    /**
+     * 批量记录添加任务（全部记录追加后只刷新一次）
+     */
+    @Synchronized
+    fun addAll(tasks: List<DownloadTask>) {
+        tasks.forEach { add(it, false) }
+        flush()
+    }
+
+    private fun add(task: DownloadTask, isFlush: Boolean) {
+        val entry = DownloadTaskJournalEntry.create(task)
+        entries[task.id] = entry
+        append(JOURNAL_RECORD_ADD_VERSIONED, isFlush) { entry.write(it) }
+    }
+
+    /**
+     * 记录任务状态变化（成功或取消的任务会从日志中移除）
+     */
+    @Synchronized
+    fun state(task: DownloadTask) = state(task, true)
+
+    /**
+     * 批量记录任务状态变化（全部记录追加后只刷新一次）
+     */
+    @Synchronized
+    fun stateAll(tasks: List<DownloadTask>) {
+        tasks.forEach { state(it, false) }
+        flush()
+    }
+
+    private fun state(task: DownloadTask, isFlush: Boolean) {
+        val entry = entries[task.id] ?: return
+        if (task.isSuccess || task.state == TaskState.Cancel) {
+            remove(task)
+            return
+        }
+        if (entry.state == task.state && entry.saveFullFileName == task.saveFullFileName) return
+        entry.state = task.state
+        entry.saveFullFileName = task.saveFullFileName
+        append(JOURNAL_RECORD_STATE, isFlush) {
+            it.writeUTF(task.id)
+            it.writeInt(entry.state.ordinal)
+            it.writeNullableUTF(entry.saveFullFileName)
+        }
+    }
+
+    /**
+     * 记录任务已写入文件的长度
+     */
+    @Synchronized
+    fun progress(task: DownloadTask, offset: Long, total: Long) {
+        val entry = entries[task.id] ?: return
+        if (entry.offset == offset && entry.total == total) return
+        entry.offset = offset
+        entry.total = total
+        append(JOURNAL_RECORD_PROGRESS) {
+            it.writeUTF(task.id)
+            it.writeLong(offset)
+            it.writeLong(total)
+        }
+    }
+
+    /**
+     * 记录删除任务
+     */
+    @Synchronized
+    fun remove(task: DownloadTask) {
+        entries.remove(task.id) ?: return
+        append(JOURNAL_RECORD_REMOVE) { it.writeUTF(task.id) }
+    }
+
+    /**
+     * 清空日志
+     */
+    @Synchronized
+    fun clear() {
+        entries.clear()
+        compact()
+    }
+
+    /**
+     * 关闭日志
+     */
+    @Synchronized
+    fun close() {
+        outputStream?.tryClose()
+        outputStream = null
+    }
+
+    /**
+     * 刷新已追加的记录
+     */
+    private fun flush() {
+        try {
+            outputStream?.flush()
+        } catch (e: Exception) {
+            LOG("DownloadTaskJournal flush error " + e.message)
+        }
+    }
+
+    /**
+     * 追加记录（isFlush为false时由调用方在批量追加后刷新）
+     */
+    private fun append(
+        type: Byte,
+        isFlush: Boolean = true,
+        writeContent: (DataOutputStream) -> Unit
+    ) {
+        try {
+            val record = ByteArrayOutputStream()
+            DataOutputStream(record).apply {
+                writeByte(type.toInt())
+                writeContent(this)
+                flush()
+            }
+            val content = record.toByteArray()
+            val output = outputStream ?: DataOutputStream(
+                BufferedOutputStream(FileOutputStream(journalFile, true))
+            ).apply { outputStream = this }
+            output.writeInt(content.size)
+            output.write(content)
+            output.writeLong(CRC32().apply { update(content) }.value)
+            if (isFlush) output.flush()
+            appendCount++
+            if (appendCount >= compactThreshold) compact()
+        } catch (e: Exception) {
+            LOG("DownloadTaskJournal append error " + e.message)
+        }
+    }
+
+    /**
+     * 压缩日志（将未完成任务的最新状态写入临时文件后替换原日志）
+     */
+    private fun compact() {
+        close()
+        val tempFile = File(journalFile.absolutePath + ".tmp")
+        try {
+            val output = DataOutputStream(BufferedOutputStream(FileOutputStream(tempFile)))
+            try {
+                entries.values.forEach { entry ->
+                    val record = ByteArrayOutputStream()
+                    DataOutputStream(record).apply {
+                        writeByte(JOURNAL_RECORD_ADD_VERSIONED.toInt())
+                        entry.write(this)
+                        flush()
+                    }
+                    val content = record.toByteArray()
+                    output.writeInt(content.size)
+                    output.write(content)
+                    output.writeLong(CRC32().apply { update(content) }.value)
+                }
+                output.flush()
+            } finally {
+                output.tryClose()
+            }
+            if (!tempFile.renameTo(journalFile)) {
+                journalFile.delete()
+                tempFile.renameTo(journalFile)
+            }
+            appendCount = 0
+        } catch (e: Exception) {
+            LOG("DownloadTaskJournal compact error " + e.message)
+        }
+    }
+
+    /**
+     * 读取日志
+     */
+    private fun load() {
+        if (!journalFile.exists()) return
+        var validLength = 0L
+        var input: DataInputStream? = null
+        try {
+            input = DataInputStream(BufferedInputStream(FileInputStream(journalFile)))
+            while (true) {
+                val length = try {
+                    input.readInt()
+                } catch (e: EOFException) {
+                    break
+                }
+                if (length <= 0 || length > JOURNAL_RECORD_MAX_LENGTH) break
+                val content = ByteArray(length)
+                input.readFully(content)
+                val crc = input.readLong()
+                if (CRC32().apply { update(content) }.value != crc) break
+                applyRecord(content)
+                validLength += 4 + length + 8
+                appendCount++
+            }
+        } catch (e: Exception) {
+            LOG("DownloadTaskJournal load error " + e.message)
+        } finally {
+            input?.tryClose()
+        }
+        // 丢弃不完整的记录，避免后续追加的记录无法读取
+        if (validLength < journalFile.length()) {
+            try {
+                RandomAccessFile(journalFile, "rw").apply {
+                    setLength(validLength)
+                    tryClose()
+                }
+            } catch (e: Exception) {
+                LOG("DownloadTaskJournal truncate error " + e.message)
+            }
+        }
+    }
+
+    /**
+     * 应用记录到任务状态中
+     */
+    private fun applyRecord(content: ByteArray) {
+        val input = DataInputStream(ByteArrayInputStream(content))
+        when (input.readByte()) {
+            JOURNAL_RECORD_ADD_VERSIONED -> DownloadTaskJournalEntry.read(input).let {
+                entries[it.id] = it
+            }
+            JOURNAL_RECORD_ADD -> DownloadTaskJournalEntry.readLegacy(content, 1)?.let {
+                entries[it.id] = it
+            }
+            JOURNAL_RECORD_STATE -> entries[input.readUTF()]?.run {
+                state = TaskState.values()[input.readInt()]
+                saveFullFileName = input.readNullableUTF()
+            }
+            JOURNAL_RECORD_PROGRESS -> entries[input.readUTF()]?.run {
+                offset = input.readLong()
+                total = input.readLong()
+            }
+            JOURNAL_RECORD_REMOVE -> entries.remove(input.readUTF())
+        }
+    }
+}
+
+/**
+ * 下载任务日志中的任务信息
+ */
+data class DownloadTaskJournalEntry(
+    val id: String,
+    val url: String,
+    val saveDirPath: String,
+    val saveFileName: String?,
+    val saveFileSuffix: String?,
+    val showName: String?,
+    val isBreakpointResume: Boolean,
+    val segmentCount: Int,
+    val segmentMinLength: Long,
+    val priority: Int,
+    val digestAlgorithm: DownloadDigestAlgorithm?,
+    val expectedDigest: String?,
+    var saveFullFileName: String?,
+    var state: TaskState,
+    var offset: Long,// 已确认写入文件的长度
+    var total: Long
+) {
+
+    /**
+     * 根据日志恢复下载任务
+     */
+    fun toDownloadTask(): DownloadTask = DownloadTask(
+        url = url,
+        saveDirPath = saveDirPath,
+        saveFileName = saveFileName,
+        saveFileSuffix = saveFileSuffix,
+        showName = showName,
+        isBreakpointResume = isBreakpointResume,
+        segmentCount = segmentCount,
+        segmentMinLength = segmentMinLength,
+        priority = priority,
+        digestAlgorithm = digestAlgorithm,
+        expectedDigest = expectedDigest,
+        id = id
+    ).apply {
+        onRestoreSaveFullFileName(saveFullFileName)
+    }
+
+    fun write(output: DataOutputStream) {
+        output.writeByte(JOURNAL_ENTRY_VERSION.toInt())
+        output.writeUTF(id)
+        output.writeUTF(url)
+        output.writeUTF(saveDirPath)
+        output.writeNullableUTF(saveFileName)
+        output.writeNullableUTF(saveFileSuffix)
+        output.writeNullableUTF(showName)
+        output.writeBoolean(isBreakpointResume)
+        output.writeInt(segmentCount)
+        output.writeLong(segmentMinLength)
+        output.writeInt(priority)
+        output.writeNullableUTF(digestAlgorithm?.name)
+        output.writeNullableUTF(expectedDigest)
+        output.writeNullableUTF(saveFullFileName)
+        output.writeInt(state.ordinal)
+        output.writeLong(offset)
+        output.writeLong(total)
+    }
+
+    companion object {
+        fun create(task: DownloadTask) = DownloadTaskJournalEntry(
+            id = task.id,
+            url = task.url,
+            saveDirPath = task.saveDirPath,
+            saveFileName = task.saveFileName,
+            saveFileSuffix = task.saveFileSuffix,
+            showName = task.showName,
+            isBreakpointResume = task.isBreakpointResume,
+            segmentCount = task.segmentCount,
+            segmentMinLength = task.segmentMinLength,
+            priority = task.priority,
+            digestAlgorithm = task.digestAlgorithm,
+            expectedDigest = task.expectedDigest,
+            saveFullFileName = task.saveFullFileName,
+            state = task.state,
+            offset = if (task.isSegmentDownload) 0 else task.breakpoint,
+            total = task.currentProgress?.total ?: 0
+        )
+
+        /**
+         * 读取带格式版本的任务信息
+         */
+        fun read(input: DataInputStream): DownloadTaskJournalEntry =
+            read(input, input.readByte())
+
+        /**
+         * 读取旧格式（没有格式版本）的任务信息，先按包含优先级的格式读取，未能完整读取时再按最初的格式读取
+         */
+        fun readLegacy(content: ByteArray, offset: Int): DownloadTaskJournalEntry? {
+            arrayOf(JOURNAL_ENTRY_VERSION_PRIORITY, JOURNAL_ENTRY_VERSION_INITIAL).forEach { version ->
+                try {
+                    val input = ByteArrayInputStream(content, offset, content.size - offset)
+                    val entry = read(DataInputStream(input), version)
+                    if (input.available() == 0) return entry
+                } catch (e: Exception) {
+                }
+            }
+            LOG("DownloadTaskJournal unknown legacy entry")
+            return null
+        }
+
+        private fun read(input: DataInputStream, version: Byte) = DownloadTaskJournalEntry(
+            id = input.readUTF(),
+            url = input.readUTF(),
+            saveDirPath = input.readUTF(),
+            saveFileName = input.readNullableUTF(),
+            saveFileSuffix = input.readNullableUTF(),
+            showName = input.readNullableUTF(),
+            isBreakpointResume = input.readBoolean(),
+            segmentCount = input.readInt(),
+            segmentMinLength = input.readLong(),
+            priority = if (version >= JOURNAL_ENTRY_VERSION_PRIORITY) input.readInt() else 0,
+            digestAlgorithm = if (version >= JOURNAL_ENTRY_VERSION_DIGEST) input.readNullableUTF()?.let { name ->
+                DownloadDigestAlgorithm.values().firstOrNull { it.name == name }
+            } else null,
+            expectedDigest = if (version >= JOURNAL_ENTRY_VERSION_DIGEST) input.readNullableUTF() else null,
+            saveFullFileName = input.readNullableUTF(),
+            state = TaskState.values()[input.readInt()],
+            offset = input.readLong(),
+            total = input.readLong()
+        )
+    }
+}
+
+private fun DataOutputStream.writeNullableUTF(value: String?) {
+    writeBoolean(value != null)
+    if (value != null) writeUTF(value)
+}
+
+private fun DataInputStream.readNullableUTF(): String? = if (readBoolean()) readUTF() else null
@@ -0,0 +1,137 @@
+package com.arcns.core.network
+
+import com.arcns.core.file.tryClose
+import com.arcns.core.util.LOG
+import java.io.BufferedReader
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileReader
+import java.io.FileWriter
+
+// 分段记录文件的后缀名
+const val DOWNLOAD_TASK_SEGMENTS_FILE_SUFFIX = ".segments"
+
+// 默认的分段最小长度
+const val DOWNLOAD_TASK_SEGMENT_MIN_LENGTH = 1024 * 1024L
+
+/**
+ * 下载任务分段（多连接分段下载时，每个分段负责下载一个字节区间）
+ */
+class DownloadTaskSegment(
+    val index: Int,// 分段序号
+    val start: Long,// 分段起始位置（包含）
+    val end: Long,// 分段结束位置（包含）
+    @Volatile var current: Long = 0// 分段已下载的长度
+) {
+    // 分段长度
+    val length: Long get() = end - start + 1
+
+    // 分段当前写入位置
+    val position: Long get() = start + current
+
+    // 分段是否已下载完成
+    val isCompleted: Boolean get() = current >= length
+
+    // 分段的Range请求头
+    val rangeHeader: String get() = "bytes=$position-$end"
+}
+
+/**
+ * 下载任务分段记录（保存在下载文件旁，用于分段断点续传）
+ */
+class DownloadTaskSegments(
+    val total: Long,// 文件总长度
+    val segments: List<DownloadTaskSegment>
+) {
+    // 全部分段已下载的长度
+    val current: Long
+        get() {
+            var current = 0L
+            segments.forEach { current += it.current }
+            return current
+        }
+
+    // 全部分段是否已下载完成
+    val isCompleted: Boolean get() = segments.firstOrNull { !it.isCompleted } == null
+
+    /**
+     * 保存分段记录（先写入临时文件再重命名，避免进程被杀死时记录文件损坏）
+     */
+    @Synchronized
+    fun save(file: File) {
+        val tempFile = File(file.absolutePath + ".tmp")
+        try {
+            val writer = BufferedWriter(FileWriter(tempFile))
+            try {
+                writer.write(total.toString())
+                segments.forEach {
+                    writer.newLine()
+                    writer.write("${it.start},${it.end},${it.current}")
+                }
+                writer.flush()
+            } finally {
+                writer.tryClose()
+            }
+            if (!tempFile.renameTo(file)) {
+                file.delete()
+                tempFile.renameTo(file)
+            }
+        } catch (e: Exception) {
+            LOG("DownloadTaskSegments save error " + e.message)
+        }
+    }
+
+    companion object {
+
+        /**
+         * 按分段数量平均切分文件
+         */
+        fun create(total: Long, segmentCount: Int, minSegmentLength: Long): DownloadTaskSegments {
+            var count = segmentCount
+            if (minSegmentLength > 0) count = minOf(count.toLong(), total / minSegmentLength).toInt()
+            if (count < 1) count = 1
+            val segmentLength = total / count
+            val segments = ArrayList<DownloadTaskSegment>()
+            for (index in 0 until count) {
+                val start = index * segmentLength
+                val end = if (index == count - 1) total - 1 else start + segmentLength - 1
+                segments.add(DownloadTaskSegment(index, start, end))
+            }
+            return DownloadTaskSegments(total, segments)
+        }
+
+        /**
+         * 读取分段记录，若记录不存在、已损坏或文件总长度不一致，则返回null
+         */
+        fun read(file: File, total: Long): DownloadTaskSegments? {
+            if (!file.exists()) return null
+            var reader: BufferedReader? = null
+            try {
+                reader = BufferedReader(FileReader(file))
+                if (reader.readLine()?.toLongOrNull() != total) return null
+                val segments = ArrayList<DownloadTaskSegment>()
+                var line = reader.readLine()
+                while (line != null) {
+                    val values = line.split(",")
+                    if (values.size != 3) return null
+                    segments.add(
+                        DownloadTaskSegment(
+                            segments.size,
+                            values[0].toLongOrNull() ?: return null,
+                            values[1].toLongOrNull() ?: return null,
+                            values[2].toLongOrNull() ?: return null
+                        )
+                    )
+                    line = reader.readLine()
+                }
+                if (segments.isEmpty()) return null
+                return DownloadTaskSegments(total, segments)
+            } catch (e: Exception) {
+                LOG("DownloadTaskSegments read error " + e.message)
+                return null
+            } finally {
+                reader?.tryClose()
+            }
+        }
+    }
+}
@@ -7,12 +7,14 @@ import java.util.concurrent.TimeUnit
 import okhttp3.Headers
 import okhttp3.Interceptor
 import okhttp3.MediaType
+import okhttp3.RequestBody
 import okhttp3.Response
+import okhttp3.ResponseBody.Companion.asResponseBody
 import okhttp3.internal.http.promisesBody
 import okhttp3.internal.platform.Platform
-import okio.Buffer
+import okio.*
 import okio.EOFException
-import okio.GzipSource
+import java.io.IOException
 import java.nio.charset.StandardCharsets
 
 /**
@@ -24,6 +26,9 @@ class LimitHttpLoggingInterceptor @JvmOverloads constructor(
 
     companion object {
         const val LOG_LIMITATION_NONE: Long = -1
+
+        // 流式模式下未设置限制时，最多记录的正文长度
+        const val STREAMING_LOG_MAX_DEFAULT: Long = 64 * 1024
     }
 
     @Volatile
@@ -45,6 +50,13 @@ class LimitHttpLoggingInterceptor @JvmOverloads constructor(
     @Volatile
     var responseBodyLogMediaTypes = listOf("text", "application/json")
 
+    /**
+     * 流式模式：正文不再被完整缓存，而是在传输给调用方的同时仅截取前requestBodyLogMax/responseBodyLogMax字节，
+     * 并根据截取的部分判断gzip与UTF-8，正文传输结束（或被关闭）后再输出日志，内存占用不超过限制长度
+     */
+    @Volatile
+    var isStreamingBody = false
+
 
     enum class Level {
         /** No logs. */
@@ -149,7 +161,7 @@ class LimitHttpLoggingInterceptor @JvmOverloads constructor(
     override fun intercept(chain: Interceptor.Chain): Response {
         val level = this.level
 
-        val request = chain.request()
+        var request = chain.request()
         if (level == Level.NONE) {
             return chain.proceed(request)
         }
@@ -195,6 +207,11 @@ class LimitHttpLoggingInterceptor @JvmOverloads constructor(
                 logger.log("--> END ${request.method} (encoded body omitted)")
             } else if (requestBody.isDuplex()) {
                 logger.log("--> END ${request.method} (duplex request body omitted)")
+            } else if (isStreamingBody) {
+                // 流式记录请求正文（在正文写出结束后输出日志）
+                request = request.newBuilder()
+                    .method(request.method, streamingRequestBody(request.method, requestBody))
+                    .build()
             } else if (requestBody.isOneShot()) {
                 logger.log("--> END ${request.method} (one-shot body omitted)")
             } else {
@@ -256,6 +273,21 @@ class LimitHttpLoggingInterceptor @JvmOverloads constructor(
                 logger.log("<-- END HTTP")
             } else if (bodyHasUnknownEncoding(response.headers)) {
                 logger.log("<-- END HTTP (encoded body omitted)")
+            } else if (isStreamingBody) {
+                // 流式记录响应正文（在调用方读取结束或关闭后输出日志）
+                val isGzip = "gzip".equals(headers["Content-Encoding"], ignoreCase = true)
+                val teeSource = LoggingTeeSource(
+                    responseBody.source(),
+                    streamingLimit(responseBodyLogMax)
+                ) { prefix, total ->
+                    logStreamingBody(
+                        prefix, total, isGzip, responseBody.contentType(), responseBodyLogMediaTypes,
+                        responseBodyLogMax, "<--", "HTTP"
+                    )
+                }
+                return response.newBuilder()
+                    .body(teeSource.buffer().asResponseBody(responseBody.contentType(), contentLength))
+                    .build()
             } else {
                 val source = responseBody.source()
                 source.request(Long.MAX_VALUE) // Buffer the entire body.
@@ -307,6 +339,86 @@ class LimitHttpLoggingInterceptor @JvmOverloads constructor(
         return response
     }
 
+    /**
+     * 流式模式下的截取长度
+     */
+    private fun streamingLimit(logMax: Long): Long =
+        if (logMax < 0) STREAMING_LOG_MAX_DEFAULT else logMax
+
+    /**
+     * 创建流式记录的请求正文（写出的同时截取前部，不改变写出的内容）
+     */
+    private fun streamingRequestBody(method: String, requestBody: RequestBody) = object : RequestBody() {
+        override fun contentType(): MediaType? = requestBody.contentType()
+
+        override fun contentLength(): Long = requestBody.contentLength()
+
+        override fun isOneShot(): Boolean = requestBody.isOneShot()
+
+        override fun writeTo(sink: BufferedSink) {
+            val teeSink = LoggingTeeSink(sink, streamingLimit(requestBodyLogMax))
+            val bufferedSink = teeSink.buffer()
+            requestBody.writeTo(bufferedSink)
+            bufferedSink.emit()
+            logger.log("")
+            logStreamingBody(
+                teeSink.prefix, teeSink.total, false, requestBody.contentType(), requestBodyLogMediaTypes,
+                requestBodyLogMax, "-->", method
+            )
+        }
+    }
+
+    /**
+     * 根据截取的正文前部输出日志
+     */
+    private fun logStreamingBody(
+        prefix: Buffer,
+        total: Long,
+        isGzip: Boolean,
+        contentType: MediaType?,
+        mediaTypes: List<String>,
+        logMax: Long,
+        arrow: String,
+        endName: String
+    ) {
+        var buffer = prefix
+        if (isGzip) {
+            // 截取的gzip数据不完整，仅解压截取的部分
+            buffer = Buffer()
+            try {
+                GzipSource(prefix).use {
+                    val limit = streamingLimit(logMax)
+                    while (buffer.size < limit && it.read(buffer, limit - buffer.size) != -1L) {
+                    }
+                }
+            } catch (_: IOException) {
+            }
+        }
+        if (!buffer.isProbablyUtf8()) {
+            logger.log("$arrow END $endName (binary $total-byte body omitted)")
+            return
+        }
+        val charset: Charset = contentType?.charset(StandardCharsets.UTF_8) ?: StandardCharsets.UTF_8
+        if (total != 0L && contentType?.verificationType(mediaTypes) == true) {
+            if (total <= streamingLimit(logMax)) {
+                logger.log(buffer.readString(charset))
+            } else if (logMax < 0) {
+                // 未设置限制时，输出截取的部分
+                logger.log(buffer.readString(charset) + "...")
+            } else {
+                logger.log(
+                    "Too large to output logs. "
+                            + "Current limitation is $logMax"
+                )
+            }
+        }
+        if (isGzip) {
+            logger.log("$arrow END $endName ($total-gzipped-byte body)")
+        } else {
+            logger.log("$arrow END $endName ($total-byte body)")
+        }
+    }
+
     private fun logHeader(headers: Headers, i: Int) {
         val value = if (headers.name(i) in headersToRedact) "██" else headers.value(i)
         logger.log(headers.name(i) + ": " + value)
@@ -349,4 +461,59 @@ internal fun Buffer.isProbablyUtf8(): Boolean {
     } catch (_: EOFException) {
         return false // Truncated UTF-8 sequence.
     }
-}
\ No newline at end of file
+}
+
+/**
+ * 截取前部的Source（读取结束或关闭时回调截取的前部与总长度，仅回调一次）
+ */
+private class LoggingTeeSource(
+    delegate: Source,
+    private val limit: Long,
+    private val onEnd: (Buffer, Long) -> Unit
+) : ForwardingSource(delegate) {
+    private val prefix = Buffer()
+    private var total = 0L
+    private var isEnd = false
+
+    override fun read(sink: Buffer, byteCount: Long): Long {
+        val read = super.read(sink, byteCount)
+        if (read == -1L) {
+            end()
+            return read
+        }
+        val capture = minOf(read, limit - prefix.size)
+        if (capture > 0) sink.copyTo(prefix, sink.size - read, capture)
+        total += read
+        return read
+    }
+
+    override fun close() {
+        end()
+        super.close()
+    }
+
+    private fun end() {
+        if (isEnd) return
+        isEnd = true
+        onEnd(prefix, total)
+    }
+}
+
+/**
+ * 截取前部的Sink
+ */
+private class LoggingTeeSink(
+    delegate: Sink,
+    private val limit: Long
+) : ForwardingSink(delegate) {
+    val prefix = Buffer()
+    var total = 0L
+        private set
+
+    override fun write(source: Buffer, byteCount: Long) {
+        val capture = minOf(byteCount, limit - prefix.size)
+        if (capture > 0) source.copyTo(prefix, 0, capture)
+        total += byteCount
+        super.write(source, byteCount)
+    }
+}
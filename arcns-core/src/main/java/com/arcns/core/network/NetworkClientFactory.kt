@@ -0,0 +1,106 @@
+package com.arcns.core.network
+
+import okhttp3.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 网络客户端工厂
+ * 下载与上传管理器默认使用同一个OkHttpClient，共享连接池、调度器与TLS会话，并在服务器支持时使用HTTP/2多路复用，
+ * 需要单独配置的客户端请使用newBuilder创建，以便继续共享连接池与调度器
+ */
+object NetworkClientFactory {
+
+    // 共享的连接池
+    val connectionPool = ConnectionPool(10, 5, TimeUnit.MINUTES)
+
+    // 共享的调度器
+    val dispatcher = Dispatcher()
+
+    // 连接复用统计
+    val connectionStats = NetworkConnectionStats()
+
+    // 共享的OkHttpClient
+    val sharedClient: OkHttpClient by lazy {
+        OkHttpClient.Builder()
+            .connectTimeout(60, TimeUnit.SECONDS)
+            .connectionPool(connectionPool)
+            .dispatcher(dispatcher)
+            .protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .eventListener(connectionStats)
+            .build()
+    }
+
+    /**
+     * 创建共享连接池与调度器的OkHttpClient.Builder
+     */
+    fun newBuilder(): OkHttpClient.Builder = sharedClient.newBuilder()
+
+    /**
+     * 确保调度器的每个主机的最大请求数量不小于count（仅作用于共享的调度器）
+     */
+    @Synchronized
+    fun ensureMaxRequestsPerHost(client: OkHttpClient, count: Int) {
+        val dispatcher = client.dispatcher
+        if (dispatcher !== this.dispatcher || count <= dispatcher.maxRequestsPerHost) return
+        dispatcher.maxRequestsPerHost = count
+        if (dispatcher.maxRequests < count) dispatcher.maxRequests = count
+    }
+}
+
+/**
+ * 连接复用统计（每次请求获取连接时记录，未建立新连接即为复用连接池中的连接或HTTP/2多路复用）
+ */
+class NetworkConnectionStats : EventListener() {
+
+    // 获取连接的次数
+    private val acquiredCount = AtomicLong()
+
+    // 新建连接的次数
+    private val connectCount = AtomicLong()
+
+    override fun connectStart(call: Call, inetSocketAddress: java.net.InetSocketAddress, proxy: java.net.Proxy) {
+        connectCount.incrementAndGet()
+    }
+
+    override fun connectionAcquired(call: Call, connection: Connection) {
+        acquiredCount.incrementAndGet()
+    }
+
+    /**
+     * 获取统计快照
+     */
+    fun snapshot(pool: ConnectionPool = NetworkClientFactory.connectionPool): Snapshot {
+        val acquired = acquiredCount.get()
+        val connected = connectCount.get()
+        return Snapshot(
+            acquired,
+            connected,
+            maxOf(acquired - connected, 0),
+            pool.connectionCount(),
+            pool.idleConnectionCount()
+        )
+    }
+
+    /**
+     * 重置统计
+     */
+    fun reset() {
+        acquiredCount.set(0)
+        connectCount.set(0)
+    }
+
+    /**
+     * 统计快照
+     */
+    data class Snapshot(
+        val acquiredCount: Long,// 获取连接的次数
+        val connectCount: Long,// 新建连接的次数（含失败重连）
+        val reusedCount: Long,// 复用连接的次数（连接池命中）
+        val connectionCount: Int,// 连接池中的连接数量
+        val idleConnectionCount: Int// 连接池中的空闲连接数量
+    ) {
+        // 连接池命中率
+        val hitRate: Double get() = if (acquiredCount <= 0) 0.0 else reusedCount.toDouble() / acquiredCount
+    }
+}
@@ -0,0 +1,129 @@
+package com.arcns.core.network
+
+import com.arcns.core.APP
+
+/**
+ * 任务的网络条件约束（不满足时任务会被自动暂停，满足后自动从断点恢复）
+ */
+class NetworkConstraints(
+    var requireUnmetered: Boolean = false,// 仅在不计流量的网络（如Wi-Fi）中运行
+    var minBandwidthKbps: Int = 0,// 最低下行带宽估计（Kbps），0为不限制（带宽未知时视为满足）
+    var requireCharging: Boolean = false,// 仅在充电时运行
+    var requireBatteryNotLow: Boolean = false// 仅在电量不低时运行
+) {
+
+    /**
+     * 是否满足约束（网络未连接时总是不满足）
+     */
+    fun isSatisfied(conditions: NetworkConditions): Boolean =
+        conditions.isConnected
+                && (!requireUnmetered || conditions.isUnmetered)
+                && (minBandwidthKbps <= 0 || conditions.bandwidthKbps <= 0 || conditions.bandwidthKbps >= minBandwidthKbps)
+                && (!requireCharging || conditions.isCharging)
+                && (!requireBatteryNotLow || !conditions.isBatteryLow)
+}
+
+/**
+ * 当前的网络与电量条件
+ */
+data class NetworkConditions(
+    val isConnected: Boolean = true,// 网络是否已连接
+    val isUnmetered: Boolean = true,// 网络是否不计流量
+    val bandwidthKbps: Int = 0,// 下行带宽估计（Kbps），0为未知
+    val isCharging: Boolean = true,// 是否正在充电
+    val isBatteryLow: Boolean = false// 电量是否过低
+)
+
+/**
+ * 网络条件来源（条件变化时调用update通知监听者，可继承实现用于测试的来源）
+ */
+abstract class NetworkConditionSource {
+
+    // 监听者
+    private val listeners = ArrayList<(NetworkConditions) -> Unit>()
+
+    // 当前条件
+    @Volatile
+    var conditions: NetworkConditions = NetworkConditions()
+        private set
+
+    /**
+     * 添加监听者（第一个监听者加入时开始监听系统条件）
+     */
+    @Synchronized
+    fun addListener(listener: (NetworkConditions) -> Unit) {
+        if (listeners.contains(listener)) return
+        listeners.add(listener)
+        if (listeners.size == 1) onActive()
+    }
+
+    /**
+     * 删除监听者（最后一个监听者删除时停止监听系统条件）
+     */
+    @Synchronized
+    fun removeListener(listener: (NetworkConditions) -> Unit) {
+        if (!listeners.remove(listener)) return
+        if (listeners.isEmpty()) onInactive()
+    }
+
+    /**
+     * 更新当前条件，若条件发生变化则通知监听者
+     */
+    fun update(conditions: NetworkConditions) {
+        val currentListeners = synchronized(this) {
+            if (this.conditions == conditions) return
+            this.conditions = conditions
+            ArrayList(listeners)
+        }
+        currentListeners.forEach { it(conditions) }
+    }
+
+    // 开始监听系统条件
+    protected open fun onActive() {}
+
+    // 停止监听系统条件
+    protected open fun onInactive() {}
+}
+
+/**
+ * 网络条件约束控制器（条件变化时暂停不满足约束的任务，并恢复因约束而暂停且已重新满足约束的任务）
+ */
+class NetworkConstraintController<T : NetworkTask<*>>(
+    private val source: NetworkConditionSource,// 网络条件来源
+    private val getTasks: () -> List<T>,// 获取任务列表
+    private val onPause: (T) -> Unit,// 暂停任务（停止原因为NetworkTaskStopReason.Constraint）
+    private val onResume: (T) -> Unit// 恢复任务
+) {
+    // 条件变化监听（在主线程中评估）
+    private val listener: (NetworkConditions) -> Unit = { APP.runOnUiThread { evaluate(it) } }
+
+    init {
+        source.addListener(listener)
+    }
+
+    /**
+     * 任务当前是否满足约束
+     */
+    fun isSatisfied(task: T): Boolean = task.constraints?.isSatisfied(source.conditions) ?: true
+
+    /**
+     * 根据条件评估所有任务
+     */
+    fun evaluate(conditions: NetworkConditions = source.conditions) {
+        ArrayList(getTasks()).forEach { task ->
+            val constraints = task.constraints ?: return@forEach
+            if (constraints.isSatisfied(conditions)) {
+                if (task.state == TaskState.Pause && task.stopReason == NetworkTaskStopReason.Constraint) {
+                    onResume(task)
+                }
+            } else if (!task.isStop) {
+                onPause(task)
+            }
+        }
+    }
+
+    /**
+     * 释放控制器（停止监听条件变化）
+     */
+    fun release() = source.removeListener(listener)
+}
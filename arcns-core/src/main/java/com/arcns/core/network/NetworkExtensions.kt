@@ -25,6 +25,16 @@ val Response.isAcceptRange: Boolean
         true
     )
 
+/**
+ * 获取Content-Range中的文件总长度（例如：bytes 0-0/1024），若无法获取则返回null
+ */
+val Response.contentRangeTotal: Long?
+    get() {
+        val value = header("Content-Range") ?: return null
+        val start = value.lastIndexOf("/").let { if (it >= 0) it + 1 else null } ?: return null
+        return value.substring(start).trim().toLongOrNull()
+    }
+
 /**
  * 获取文件名
  */
@@ -38,6 +48,12 @@ val Response.fileName: String?
         return fileName
     }
 
+/**
+ * 转换为Content-Disposition中带引号的参数值（与OkHttp的Multipart表单编码规则一致）
+ */
+val String.quoted: String
+    get() = "\"" + replace("\n", "%0A").replace("\r", "%0D").replace("\"", "%22") + "\""
+
 fun String.getAbbreviatedText(length: Int): String {
     if (this.length <= length) return this
     val middle = length / 2
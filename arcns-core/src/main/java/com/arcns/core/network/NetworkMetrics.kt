@@ -0,0 +1,435 @@
+package com.arcns.core.network
+
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.MutableLiveData
+import okhttp3.*
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * 网络请求统计（按主机与路径记录DNS、连接、TLS、首字节、正文传输耗时及传输字节数）
+ * 使用attach将统计的EventListener与Interceptor附加到OkHttpClient，请求中带有NetworkTask标签时，同时统计任务的传输速度
+ */
+class NetworkMetrics(
+    var publishIntervalMillis: Long = 1000,// 快照LiveData的最短发布间隔
+    var maxKeys: Int = 256,// 最多统计的主机与路径数量，超过后仅按主机统计
+    // 统计分组的key（默认为主机+路径）
+    var keyOf: (HttpUrl) -> String = { it.host + it.encodedPath }
+) {
+    // 各分组的统计
+    private val records = ConcurrentHashMap<String, NetworkMetricsRecord>()
+
+    // 上一次发布快照的时间
+    private val lastPublishTime = AtomicLong()
+
+    // 统计快照
+    private val _snapshotLiveData = MutableLiveData<Map<String, NetworkMetricsSnapshot>>()
+    val snapshotLiveData: LiveData<Map<String, NetworkMetricsSnapshot>> = _snapshotLiveData
+
+    // 统计拦截器（记录状态码，总耗时与失败次数由EventListener在请求结束时记录）
+    val interceptor = Interceptor { chain ->
+        val request = chain.request()
+        chain.proceed(request).also {
+            recordOf(request.url).onStatusCode(it.code)
+        }
+    }
+
+    // 统计EventListener工厂
+    val eventListenerFactory = object : EventListener.Factory {
+        override fun create(call: Call): EventListener = MetricsEventListener()
+    }
+
+    /**
+     * 将统计附加到OkHttpClient（返回的客户端与原客户端共享连接池与调度器，原有的EventListener继续生效）
+     */
+    fun attach(client: OkHttpClient): OkHttpClient {
+        val baseFactory = client.eventListenerFactory
+        return client.newBuilder()
+            .eventListenerFactory(object : EventListener.Factory {
+                override fun create(call: Call): EventListener = NetworkCompositeEventListener(
+                    listOf(baseFactory.create(call), eventListenerFactory.create(call))
+                )
+            })
+            .addInterceptor(interceptor)
+            .build()
+    }
+
+    /**
+     * 获取统计快照（key为主机+路径）
+     */
+    fun snapshot(): Map<String, NetworkMetricsSnapshot> =
+        records.mapValues { it.value.snapshot() }
+
+    /**
+     * 清空统计
+     */
+    fun reset() = records.clear()
+
+    /**
+     * 获取统计分组
+     */
+    private fun recordOf(url: HttpUrl): NetworkMetricsRecord {
+        val key = keyOf(url)
+        records[key]?.let { return it }
+        val actualKey = if (records.size >= maxKeys) url.host else key
+        return records.getOrPut(actualKey) { NetworkMetricsRecord() }
+    }
+
+    /**
+     * 按间隔发布快照
+     */
+    private fun publish() {
+        val now = System.currentTimeMillis()
+        val last = lastPublishTime.get()
+        if (now - last < publishIntervalMillis || !lastPublishTime.compareAndSet(last, now)) return
+        _snapshotLiveData.postValue(snapshot())
+    }
+
+    /**
+     * 单个请求的统计EventListener（每个请求一个实例，记录各阶段的开始时间）
+     */
+    private inner class MetricsEventListener : EventListener() {
+        private var callStartNs = 0L
+        private var dnsStartNs = 0L
+        private var connectStartNs = 0L
+        private var secureConnectStartNs = 0L
+        private var requestHeadersStartNs = 0L
+        private var responseBodyStartNs = 0L
+        private var isFirstByteRecorded = false
+
+        private fun record(call: Call) = recordOf(call.request().url)
+
+        override fun callStart(call: Call) {
+            callStartNs = System.nanoTime()
+        }
+
+        override fun dnsStart(call: Call, domainName: String) {
+            dnsStartNs = System.nanoTime()
+        }
+
+        override fun dnsEnd(call: Call, domainName: String, inetAddressList: List<InetAddress>) {
+            record(call).dns.record((System.nanoTime() - dnsStartNs) / 1000)
+        }
+
+        override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+            connectStartNs = System.nanoTime()
+        }
+
+        override fun connectEnd(
+            call: Call,
+            inetSocketAddress: InetSocketAddress,
+            proxy: Proxy,
+            protocol: Protocol?
+        ) {
+            record(call).connect.record((System.nanoTime() - connectStartNs) / 1000)
+        }
+
+        override fun secureConnectStart(call: Call) {
+            secureConnectStartNs = System.nanoTime()
+        }
+
+        override fun secureConnectEnd(call: Call, handshake: Handshake?) {
+            record(call).tls.record((System.nanoTime() - secureConnectStartNs) / 1000)
+        }
+
+        override fun requestHeadersStart(call: Call) {
+            requestHeadersStartNs = System.nanoTime()
+            isFirstByteRecorded = false
+        }
+
+        override fun requestBodyEnd(call: Call, byteCount: Long) {
+            record(call).bytesSent.addAndGet(byteCount)
+            call.request().tag(NetworkTask::class.java)?.transferMetrics?.onSent(byteCount)
+        }
+
+        override fun responseHeadersStart(call: Call) {
+            if (isFirstByteRecorded) return
+            isFirstByteRecorded = true
+            record(call).ttfb.record((System.nanoTime() - requestHeadersStartNs) / 1000)
+        }
+
+        override fun responseBodyStart(call: Call) {
+            responseBodyStartNs = System.nanoTime()
+        }
+
+        override fun responseBodyEnd(call: Call, byteCount: Long) {
+            val transferNs = System.nanoTime() - responseBodyStartNs
+            record(call).run {
+                transfer.record(transferNs / 1000)
+                bytesReceived.addAndGet(byteCount)
+            }
+            call.request().tag(NetworkTask::class.java)?.transferMetrics?.onReceived(byteCount, transferNs)
+        }
+
+        // 响应正文读取完毕或关闭后回调，总耗时包含重定向及正文传输
+        override fun callEnd(call: Call) {
+            record(call).run {
+                duration.record((System.nanoTime() - callStartNs) / 1000)
+                calls.incrementAndGet()
+            }
+            publish()
+        }
+
+        override fun callFailed(call: Call, ioe: IOException) {
+            record(call).run {
+                duration.record((System.nanoTime() - callStartNs) / 1000)
+                calls.incrementAndGet()
+                failures.incrementAndGet()
+            }
+            publish()
+        }
+    }
+}
+
+/**
+ * 单个分组的统计（耗时单位为微秒）
+ */
+class NetworkMetricsRecord {
+    val dns = NetworkHistogram()
+    val connect = NetworkHistogram()
+    val tls = NetworkHistogram()
+    val ttfb = NetworkHistogram()
+    val transfer = NetworkHistogram()
+    val duration = NetworkHistogram()
+    val calls = AtomicLong()
+    val failures = AtomicLong()
+    val bytesSent = AtomicLong()
+    val bytesReceived = AtomicLong()
+
+    // 各类状态码（1xx~5xx）的数量
+    val statusCodes = AtomicLongArray(6)
+
+    fun onStatusCode(code: Int) {
+        statusCodes.incrementAndGet((code / 100).coerceIn(0, 5))
+    }
+
+    fun snapshot() = NetworkMetricsSnapshot(
+        dns.snapshot(),
+        connect.snapshot(),
+        tls.snapshot(),
+        ttfb.snapshot(),
+        transfer.snapshot(),
+        duration.snapshot(),
+        calls.get(),
+        failures.get(),
+        bytesSent.get(),
+        bytesReceived.get(),
+        LongArray(statusCodes.length()) { statusCodes.get(it) }.toList()
+    )
+}
+
+/**
+ * 分组统计快照（耗时单位为微秒）
+ */
+data class NetworkMetricsSnapshot(
+    val dns: NetworkHistogram.Snapshot,
+    val connect: NetworkHistogram.Snapshot,
+    val tls: NetworkHistogram.Snapshot,
+    val ttfb: NetworkHistogram.Snapshot,// 首字节耗时（请求头开始发送到响应头开始接收）
+    val transfer: NetworkHistogram.Snapshot,// 响应正文传输耗时
+    val duration: NetworkHistogram.Snapshot,// 总耗时（请求开始到响应正文读取完毕，含重定向）
+    val calls: Long,
+    val failures: Long,
+    val bytesSent: Long,
+    val bytesReceived: Long,
+    val statusCodes: List<Long>// 下标为状态码的百位（例如下标2为2xx的数量）
+) {
+    // 平均下载速度（字节/秒）
+    val receiveBytesPerSecond: Double
+        get() = if (transfer.sum <= 0) 0.0 else bytesReceived * 1_000_000.0 / transfer.sum
+}
+
+/**
+ * 直方图（对数线性分桶，相对误差约为1/16，记录与查询均为无锁操作）
+ */
+class NetworkHistogram {
+    private val counts = AtomicLongArray(BUCKET_COUNT)
+    private val count = AtomicLong()
+    private val sum = AtomicLong()
+    private val max = AtomicLong()
+
+    /**
+     * 记录值（负数按0记录）
+     */
+    fun record(value: Long) {
+        val v = maxOf(value, 0)
+        counts.incrementAndGet(bucketIndex(v))
+        count.incrementAndGet()
+        sum.addAndGet(v)
+        while (true) {
+            val current = max.get()
+            if (v <= current || max.compareAndSet(current, v)) break
+        }
+    }
+
+    /**
+     * 获取百分位值（percentile为0~100，返回所在分桶的上界）
+     */
+    fun percentile(percentile: Double): Long {
+        val total = count.get()
+        if (total <= 0) return 0
+        val target = maxOf((total * percentile / 100).toLong(), 1)
+        var accumulated = 0L
+        for (index in 0 until BUCKET_COUNT) {
+            accumulated += counts.get(index)
+            if (accumulated >= target) return minOf(bucketUpperBound(index), max.get())
+        }
+        return max.get()
+    }
+
+    fun snapshot() = Snapshot(
+        count.get(),
+        sum.get(),
+        max.get(),
+        percentile(50.0),
+        percentile(90.0),
+        percentile(99.0)
+    )
+
+    data class Snapshot(
+        val count: Long,
+        val sum: Long,
+        val max: Long,
+        val p50: Long,
+        val p90: Long,
+        val p99: Long
+    ) {
+        val mean: Double get() = if (count <= 0) 0.0 else sum.toDouble() / count
+    }
+
+    companion object {
+        // 每个数量级的子分桶数量
+        private const val SUB_BUCKET_BITS = 4
+        private const val SUB_BUCKET_COUNT = 1 shl SUB_BUCKET_BITS
+        private const val BUCKET_COUNT = SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT
+
+        private fun bucketIndex(value: Long): Int {
+            if (value < SUB_BUCKET_COUNT) return value.toInt()
+            val exponent = 63 - java.lang.Long.numberOfLeadingZeros(value)
+            val shift = exponent - SUB_BUCKET_BITS
+            val sub = ((value ushr shift) - SUB_BUCKET_COUNT).toInt()
+            return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + sub
+        }
+
+        private fun bucketUpperBound(index: Int): Long {
+            if (index < SUB_BUCKET_COUNT) return index.toLong()
+            val shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT
+            val sub = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT
+            return ((SUB_BUCKET_COUNT + sub + 1).toLong() shl shift) - 1
+        }
+    }
+}
+
+/**
+ * 任务的传输统计（由NetworkMetrics根据请求的NetworkTask标签记录）
+ */
+class NetworkTransferMetrics {
+    private val bytesSentCounter = AtomicLong()
+    private val bytesReceivedCounter = AtomicLong()
+    private val receiveNanos = AtomicLong()
+
+    // 已发送的字节数
+    val bytesSent: Long get() = bytesSentCounter.get()
+
+    // 已接收的字节数
+    val bytesReceived: Long get() = bytesReceivedCounter.get()
+
+    // 平均下载速度（字节/秒）
+    val receiveBytesPerSecond: Double
+        get() = receiveNanos.get().let { if (it <= 0) 0.0 else bytesReceived * 1_000_000_000.0 / it }
+
+    fun onSent(byteCount: Long) {
+        bytesSentCounter.addAndGet(byteCount)
+    }
+
+    fun onReceived(byteCount: Long, nanos: Long) {
+        bytesReceivedCounter.addAndGet(byteCount)
+        receiveNanos.addAndGet(nanos)
+    }
+}
+
+/**
+ * 组合多个EventListener（转发全部事件）
+ */
+class NetworkCompositeEventListener(private val listeners: List<EventListener>) : EventListener() {
+    override fun callStart(call: Call) = listeners.forEach { it.callStart(call) }
+
+    override fun proxySelectStart(call: Call, url: HttpUrl) =
+        listeners.forEach { it.proxySelectStart(call, url) }
+
+    override fun proxySelectEnd(call: Call, url: HttpUrl, proxies: List<Proxy>) =
+        listeners.forEach { it.proxySelectEnd(call, url, proxies) }
+
+    override fun dnsStart(call: Call, domainName: String) =
+        listeners.forEach { it.dnsStart(call, domainName) }
+
+    override fun dnsEnd(call: Call, domainName: String, inetAddressList: List<InetAddress>) =
+        listeners.forEach { it.dnsEnd(call, domainName, inetAddressList) }
+
+    override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) =
+        listeners.forEach { it.connectStart(call, inetSocketAddress, proxy) }
+
+    override fun secureConnectStart(call: Call) = listeners.forEach { it.secureConnectStart(call) }
+
+    override fun secureConnectEnd(call: Call, handshake: Handshake?) =
+        listeners.forEach { it.secureConnectEnd(call, handshake) }
+
+    override fun connectEnd(
+        call: Call,
+        inetSocketAddress: InetSocketAddress,
+        proxy: Proxy,
+        protocol: Protocol?
+    ) = listeners.forEach { it.connectEnd(call, inetSocketAddress, proxy, protocol) }
+
+    override fun connectFailed(
+        call: Call,
+        inetSocketAddress: InetSocketAddress,
+        proxy: Proxy,
+        protocol: Protocol?,
+        ioe: IOException
+    ) = listeners.forEach { it.connectFailed(call, inetSocketAddress, proxy, protocol, ioe) }
+
+    override fun connectionAcquired(call: Call, connection: Connection) =
+        listeners.forEach { it.connectionAcquired(call, connection) }
+
+    override fun connectionReleased(call: Call, connection: Connection) =
+        listeners.forEach { it.connectionReleased(call, connection) }
+
+    override fun requestHeadersStart(call: Call) = listeners.forEach { it.requestHeadersStart(call) }
+
+    override fun requestHeadersEnd(call: Call, request: Request) =
+        listeners.forEach { it.requestHeadersEnd(call, request) }
+
+    override fun requestBodyStart(call: Call) = listeners.forEach { it.requestBodyStart(call) }
+
+    override fun requestBodyEnd(call: Call, byteCount: Long) =
+        listeners.forEach { it.requestBodyEnd(call, byteCount) }
+
+    override fun requestFailed(call: Call, ioe: IOException) =
+        listeners.forEach { it.requestFailed(call, ioe) }
+
+    override fun responseHeadersStart(call: Call) = listeners.forEach { it.responseHeadersStart(call) }
+
+    override fun responseHeadersEnd(call: Call, response: Response) =
+        listeners.forEach { it.responseHeadersEnd(call, response) }
+
+    override fun responseBodyStart(call: Call) = listeners.forEach { it.responseBodyStart(call) }
+
+    override fun responseBodyEnd(call: Call, byteCount: Long) =
+        listeners.forEach { it.responseBodyEnd(call, byteCount) }
+
+    override fun responseFailed(call: Call, ioe: IOException) =
+        listeners.forEach { it.responseFailed(call, ioe) }
+
+    override fun callEnd(call: Call) = listeners.forEach { it.callEnd(call) }
+
+    override fun callFailed(call: Call, ioe: IOException) =
+        listeners.forEach { it.callFailed(call, ioe) }
+
+    override fun canceled(call: Call) = listeners.forEach { it.canceled(call) }
+}
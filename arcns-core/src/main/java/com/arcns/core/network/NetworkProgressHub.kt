@@ -0,0 +1,55 @@
+package com.arcns.core.network
+
+import android.view.Choreographer
+import com.arcns.core.APP
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * 进度分发中心
+ * 下载/上传线程只需把最新进度写入任务的基本类型字段后调用post，分发中心会合并所有任务的进度更新，
+ * 在主线程中每帧最多分发一次，分发时先逐个回调，再以一个批量列表回调，提交与合并进度时不产生对象分配
+ */
+class NetworkProgressHub<T>(
+    private val onDispatchItem: (T) -> Unit,// 逐个分发（主线程）
+    private val onDispatchBatch: (List<T>) -> Unit// 批量分发（主线程，列表会被复用，仅在回调中有效，需要保留时请复制）
+) {
+    // 待分发的项（按提交顺序，不重复，每帧的项数量很少，直接查找即可）
+    private val pendingItems = ArrayList<T>()
+
+    // 分发中的项（复用）
+    private val dispatchItems = ArrayList<T>()
+
+    // 是否已安排分发
+    private val isScheduled = AtomicBoolean(false)
+
+    // 帧回调
+    private val frameCallback = Choreographer.FrameCallback { dispatch() }
+
+    // 在主线程中安排下一帧分发
+    private val scheduleRunnable = Runnable {
+        Choreographer.getInstance().postFrameCallback(frameCallback)
+    }
+
+    /**
+     * 提交进度更新（任意线程）
+     */
+    fun post(item: T) {
+        synchronized(pendingItems) { if (!pendingItems.contains(item)) pendingItems.add(item) }
+        if (isScheduled.compareAndSet(false, true)) APP.mainHandler.post(scheduleRunnable)
+    }
+
+    /**
+     * 分发进度更新（主线程）
+     */
+    private fun dispatch() {
+        synchronized(pendingItems) {
+            for (index in pendingItems.indices) dispatchItems.add(pendingItems[index])
+            pendingItems.clear()
+            isScheduled.set(false)
+        }
+        if (dispatchItems.isEmpty()) return
+        for (index in dispatchItems.indices) onDispatchItem(dispatchItems[index])
+        onDispatchBatch(dispatchItems)
+        dispatchItems.clear()
+    }
+}
@@ -0,0 +1,72 @@
+package com.arcns.core.network
+
+/**
+ * 网络限速器（令牌桶）
+ * 令牌不足时允许透支，后续的申请需要等待透支部分被补足，因此多个通道共用同一个限速器时会按申请顺序公平分配带宽
+ */
+class NetworkRateLimiter(
+    bytesPerSecond: Long = 0,// 每秒允许传输的字节数，小于等于0为不限速
+    var burstMillis: Long = 100// 允许突发传输的时长（令牌桶容量 = 速率 * 突发时长）
+) {
+    // 每秒允许传输的字节数（可在运行时修改，小于等于0为不限速）
+    @Volatile
+    var bytesPerSecond: Long = bytesPerSecond
+        set(value) {
+            synchronized(this) {
+                field = value
+                // 速率变化后重新计算令牌，避免旧速率下积累的令牌或透支影响新速率
+                tokens = 0.0
+                lastRefillTime = System.nanoTime()
+            }
+        }
+
+    // 是否限速
+    val isLimited: Boolean get() = bytesPerSecond > 0
+
+    // 当前令牌数（可为负数，表示已透支）
+    private var tokens = 0.0
+
+    // 上一次补充令牌的时间
+    private var lastRefillTime = System.nanoTime()
+
+    /**
+     * 申请传输指定字节数，返回需要等待的纳秒数
+     */
+    @Synchronized
+    fun reserve(bytes: Long): Long {
+        val rate = bytesPerSecond
+        if (rate <= 0) return 0
+        val now = System.nanoTime()
+        val capacity = maxOf(rate * burstMillis / 1000.0, 1.0)
+        tokens = minOf(capacity, tokens + (now - lastRefillTime) * rate / 1_000_000_000.0)
+        lastRefillTime = now
+        tokens -= bytes
+        return if (tokens >= 0) 0 else (-tokens * 1_000_000_000.0 / rate).toLong()
+    }
+
+    /**
+     * 申请传输指定字节数，若令牌不足则阻塞等待（分段等待，以便及时响应任务停止）
+     */
+    fun acquire(bytes: Long, isStop: (() -> Boolean)? = null) {
+        var waitNanos = reserve(bytes)
+        while (waitNanos > 0) {
+            if (isStop?.invoke() == true) return
+            val sleepNanos = minOf(waitNanos, MAX_SLEEP_NANOS)
+            Thread.sleep(sleepNanos / 1_000_000, (sleepNanos % 1_000_000).toInt())
+            waitNanos -= sleepNanos
+        }
+    }
+
+    companion object {
+        // 单次等待的最大时长
+        private const val MAX_SLEEP_NANOS = 100_000_000L
+    }
+}
+
+/**
+ * 按任务限速器与管理器限速器申请传输指定字节数
+ */
+fun NetworkTask<*>.acquireBandwidth(bytes: Long, managerRateLimiter: NetworkRateLimiter?) {
+    if (rateLimiter.isLimited) rateLimiter.acquire(bytes) { isStop }
+    if (managerRateLimiter?.isLimited == true) managerRateLimiter.acquire(bytes) { isStop }
+}
@@ -0,0 +1,227 @@
+package com.arcns.core.network
+
+import android.os.SystemClock
+import com.arcns.core.APP
+import okhttp3.Response
+import java.io.IOException
+import kotlin.math.pow
+import kotlin.random.Random
+
+// 等待重试期间检查任务是否已停止的间隔
+private const val RETRY_STOP_CHECK_INTERVAL = 200L
+
+/**
+ * 网络重试策略（指数退避并加入随机抖动，可按主机熔断）
+ * 下载任务重试时从断点继续下载（分段下载从分段记录继续），上传任务重试时跳过已完成的分片或文件
+ */
+open class NetworkRetryPolicy(
+    var maxAttempts: Int = 3,// 最大重试次数
+    var initialBackoffMillis: Long = 1000,// 第一次重试的等待时间
+    var maxBackoffMillis: Long = 30_000,// 最大等待时间
+    var multiplier: Double = 2.0,// 每次重试等待时间的倍数
+    var jitterFactor: Double = 0.2,// 随机抖动比例（等待时间会在±该比例内随机浮动，避免大量任务同时重试）
+    var retryOnExceptions: List<Class<out Exception>> = listOf(IOException::class.java),// 需要重试的异常类型
+    var retryOnCodes: Set<Int> = DEFAULT_RETRY_CODES,// 需要重试的HTTP状态码
+    var circuitBreaker: NetworkCircuitBreaker? = NetworkCircuitBreaker(),// 主机熔断器（若为null，则不熔断）
+    // 重试回调（任务、第几次重试、等待时间），可用于统计重试次数与等待时间
+    var onRetry: ((NetworkTask<*>, Int, Long) -> Unit)? = null
+) {
+
+    /**
+     * 是否需要重试
+     */
+    open fun isRetryable(e: Exception?, response: Response?): Boolean {
+        if (e != null) return retryOnExceptions.any { it.isInstance(e) }
+        return response != null && !response.isSuccessful && response.code in retryOnCodes
+    }
+
+    /**
+     * 第attempt次重试的等待时间（优先使用响应中以秒为单位的Retry-After）
+     */
+    open fun backoffMillis(attempt: Int, response: Response?): Long {
+        response?.header("Retry-After")?.trim()?.toLongOrNull()?.let {
+            return minOf(it * 1000, maxBackoffMillis)
+        }
+        val base = minOf(
+            initialBackoffMillis * multiplier.pow(attempt - 1),
+            maxBackoffMillis.toDouble()
+        )
+        val jitter = base * jitterFactor * (Random.nextDouble() * 2 - 1)
+        return (base + jitter).toLong().coerceIn(0, maxBackoffMillis)
+    }
+
+    /**
+     * 任务失败时调用，返回下一次重试的等待时间，若不需要重试则返回null
+     */
+    fun nextRetryDelay(task: NetworkTask<*>, e: Exception?, response: Response?): Long? {
+        val attempts = task.retryMetrics.attempts
+        val delayMillis = nextDelay(task, attempts, e, response) ?: return null
+        task.retryMetrics.onRetry(delayMillis)
+        onRetry?.invoke(task, attempts + 1, delayMillis)
+        return delayMillis
+    }
+
+    /**
+     * 任务中的单个请求（例如上传任务的文件或分片）失败时调用，attempts为该请求已重试的次数，
+     * 返回下一次重试的等待时间，若不需要重试则返回null（单个请求的重试不占用任务的重试次数）
+     */
+    fun nextRequestRetryDelay(
+        task: NetworkTask<*>,
+        attempts: Int,
+        e: Exception?,
+        response: Response?
+    ): Long? {
+        val delayMillis = nextDelay(task, attempts, e, response) ?: return null
+        task.retryMetrics.onRequestRetry(delayMillis)
+        onRetry?.invoke(task, attempts + 1, delayMillis)
+        return delayMillis
+    }
+
+    /**
+     * 计算下一次重试的等待时间，若不需要重试则返回null
+     */
+    private fun nextDelay(task: NetworkTask<*>, attempts: Int, e: Exception?, response: Response?): Long? {
+        if (task.isStop || !isRetryable(e, response)) return null
+        val host = task.host
+        circuitBreaker?.onFailure(host)
+        if (attempts >= maxAttempts) return null
+        if (circuitBreaker?.isOpen(host) == true) return null
+        return backoffMillis(attempts + 1, response)
+    }
+
+    /**
+     * 任务成功时调用
+     */
+    fun onSuccess(task: NetworkTask<*>) {
+        circuitBreaker?.onSuccess(task.host)
+        task.retryMetrics.onFinish()
+    }
+
+    /**
+     * 任务中的单个请求成功时调用
+     */
+    fun onRequestSuccess(task: NetworkTask<*>) {
+        circuitBreaker?.onSuccess(task.host)
+    }
+
+    /**
+     * 任务最终失败（不再重试）时调用
+     */
+    fun onFailure(task: NetworkTask<*>) {
+        task.retryMetrics.onFinish()
+    }
+
+    companion object {
+        // 默认需要重试的HTTP状态码（请求超时、请求过多及服务器临时错误）
+        val DEFAULT_RETRY_CODES = setOf(408, 429, 500, 502, 503, 504)
+    }
+}
+
+/**
+ * 主机熔断器
+ * 同一主机连续失败达到阈值后熔断，熔断期间该主机的任务不再重试，熔断时间结束后允许重试，若再次失败则重新熔断
+ */
+class NetworkCircuitBreaker(
+    var failureThreshold: Int = 5,// 连续失败次数阈值
+    var openMillis: Long = 30_000// 熔断时间
+) {
+    // 主机的连续失败次数
+    private val failureCounts = HashMap<String, Int>()
+
+    // 主机的熔断结束时间
+    private val openUntil = HashMap<String, Long>()
+
+    /**
+     * 主机是否已熔断
+     */
+    @Synchronized
+    fun isOpen(host: String): Boolean {
+        val until = openUntil[host] ?: return false
+        if (SystemClock.elapsedRealtime() < until) return true
+        openUntil.remove(host)
+        return false
+    }
+
+    /**
+     * 记录主机请求失败
+     */
+    @Synchronized
+    fun onFailure(host: String) {
+        val count = (failureCounts[host] ?: 0) + 1
+        failureCounts[host] = count
+        if (count >= failureThreshold) {
+            openUntil[host] = SystemClock.elapsedRealtime() + openMillis
+            failureCounts[host] = 0
+        }
+    }
+
+    /**
+     * 记录主机请求成功
+     */
+    @Synchronized
+    fun onSuccess(host: String) {
+        failureCounts.remove(host)
+        openUntil.remove(host)
+    }
+}
+
+/**
+ * 任务的重试统计
+ */
+class NetworkRetryMetrics {
+    // 当前连续重试次数（任务成功或最终失败后清零）
+    @Volatile
+    var attempts: Int = 0
+        private set
+
+    // 累计重试次数
+    @Volatile
+    var totalAttempts: Int = 0
+        private set
+
+    // 累计等待重试的时间
+    @Volatile
+    var totalBackoffMillis: Long = 0
+        private set
+
+    @Synchronized
+    fun onRetry(delayMillis: Long) {
+        attempts++
+        totalAttempts++
+        totalBackoffMillis += delayMillis
+    }
+
+    /**
+     * 任务中的单个请求重试（计入累计统计，不增加任务的连续重试次数）
+     */
+    @Synchronized
+    fun onRequestRetry(delayMillis: Long) {
+        totalAttempts++
+        totalBackoffMillis += delayMillis
+    }
+
+    fun onFinish() {
+        attempts = 0
+    }
+}
+
+/**
+ * 等待重试（在主线程中等待，等待期间任务被停止时立即回调onStop）
+ */
+fun NetworkTask<*>.waitForRetry(delayMillis: Long, onRetry: () -> Unit, onStop: () -> Unit) {
+    val retryTime = SystemClock.uptimeMillis() + delayMillis
+    APP.mainHandler.post(object : Runnable {
+        override fun run() {
+            if (isStop) {
+                onStop()
+                return
+            }
+            val remaining = retryTime - SystemClock.uptimeMillis()
+            if (remaining > 0) {
+                APP.mainHandler.postDelayed(this, minOf(remaining, RETRY_STOP_CHECK_INTERVAL))
+                return
+            }
+            onRetry()
+        }
+    })
+}
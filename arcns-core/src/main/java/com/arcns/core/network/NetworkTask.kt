@@ -17,15 +17,25 @@ abstract class NetworkTask<T>(
     var progressUpdateInterval: Long? = null,//进度更新间隔
     var onTaskFailure: OnTaskFailure<T>? = null,//任务失败回调
     var onTaskSuccess: OnTaskSuccess<T>? = null,//任务成功回调
-    var extraData: Any? = null//自定义的附带数据
+    var extraData: Any? = null,//自定义的附带数据
+    id: String? = null,//任务唯一性id（若为null，则自动生成，通常仅在恢复任务时指定）
+    var priority: Int = 0//任务优先级（数值越大越优先，相同优先级按加入顺序排队）
 ) {
     // 任务唯一性id
-    val id: String = UUID.randomUUID().toString()
+    val id: String = id ?: UUID.randomUUID().toString()
 
     // 任务Call（Okhttp）
     var call: Call? = null
         private set
 
+    // 任务附加的Call（如分段下载、逐个文件上传时同时进行的多个请求，停止任务时一并取消）
+    private val attachedCalls = ArrayList<Call>()
+
+    // 任务运行的代数（每次更新为运行中时加1，用于识别任务重新运行前遗留的回调）
+    @Volatile
+    var runGeneration: Int = 0
+        private set
+
     // 任务状态
     var state: TaskState = TaskState.None
         private set
@@ -46,6 +56,21 @@ abstract class NetworkTask<T>(
     var stopReason = NetworkTaskStopReason.Normal
         private set
 
+    // 任务限速器（默认不限速，可在运行时修改bytesPerSecond）
+    val rateLimiter = NetworkRateLimiter()
+
+    // 任务重试策略（若为null，则使用管理器的重试策略）
+    var retryPolicy: NetworkRetryPolicy? = null
+
+    // 任务重试统计
+    val retryMetrics = NetworkRetryMetrics()
+
+    // 任务传输统计（需要管理器设置网络请求统计）
+    val transferMetrics = NetworkTransferMetrics()
+
+    // 任务的网络条件约束（需要管理器设置网络条件来源，若为null则不约束）
+    var constraints: NetworkConstraints? = null
+
     /**
      * 强制停止任务（注意此方法通常由管理器中调用，请勿随意调用）
      */
@@ -57,6 +82,37 @@ abstract class NetworkTask<T>(
         this.stopReason = reason
         call?.cancel()
         call = null
+        cancelAttachedCalls()
+    }
+
+    /**
+     * 附加任务的Call（停止任务时一并取消），若任务已停止则立即取消Call并返回false（注意此方法通常由管理器中调用，请勿随意调用）
+     */
+    @Synchronized
+    fun attachCall(call: Call): Boolean {
+        if (isStop) {
+            call.cancel()
+            return false
+        }
+        attachedCalls.add(call)
+        return true
+    }
+
+    /**
+     * 移除已结束的附加Call（注意此方法通常由管理器中调用，请勿随意调用）
+     */
+    @Synchronized
+    fun detachCall(call: Call) {
+        attachedCalls.remove(call)
+    }
+
+    /**
+     * 取消全部附加的Call
+     */
+    @Synchronized
+    private fun cancelAttachedCalls() {
+        attachedCalls.forEach { it.cancel() }
+        attachedCalls.clear()
     }
 
     /**
@@ -92,7 +148,11 @@ abstract class NetworkTask<T>(
     /**
      * 更新任务状态为运行中（注意此方法通常由管理器中调用，请勿随意调用）
      */
-    fun onChangeStateToRunning(call: Call) {
+    fun onChangeStateToRunning(call: Call?) {
+        synchronized(this) {
+            attachedCalls.clear()
+            runGeneration++
+        }
         state = TaskState.Running
         this.call = call
     }
@@ -147,8 +207,8 @@ enum class TaskState {
  * 任务进度类
  */
 data class NetworkTaskProgress(
-    var total: Long,
-    var current: Long
+    val total: Long,
+    val current: Long
 ) {
     // 返回下载进度百分比（double）
     fun getPercentage(decimalPlaces: Int = 2, isRounding: Boolean = true): Double =
@@ -186,5 +246,6 @@ data class NetworkTaskProgress(
 enum class NetworkTaskStopReason {
     Normal, // 正常留下的成功或失败
     Human, // 人为干预某个任务导致的
-    HumanAll // 人为干预全部任务导致的
+    HumanAll, // 人为干预全部任务导致的
+    Constraint // 不满足网络条件约束导致的（满足后会自动恢复）
 }
\ No newline at end of file
@@ -0,0 +1,136 @@
+package com.arcns.core.network
+
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import java.util.*
+import kotlin.collections.HashMap
+import kotlin.collections.HashSet
+
+/**
+ * 任务调度器（按优先级排队，相同优先级按加入顺序排队，并限制全局与每个主机的同时运行数量）
+ * 排队与调度均为O(log n)，已停止或已不在等待状态的任务会在出队时被跳过
+ */
+class NetworkTaskScheduler<T : NetworkTask<*>> {
+
+    // 排队中的任务
+    private val waitQueue = PriorityQueue<Entry<T>>()
+
+    // 因主机运行数量已满而暂时搁置的任务
+    private val hostWaitQueues = HashMap<String, PriorityQueue<Entry<T>>>()
+
+    // 已下发（运行中）的任务id
+    private val runningTaskIDs = HashSet<String>()
+
+    // 每个主机已下发（运行中）的任务数量
+    private val hostRunningCounts = HashMap<String, Int>()
+
+    // 任务加入顺序
+    private var sequence = 0L
+
+    // 已下发（运行中）的任务数量
+    @get:Synchronized
+    val runningCount: Int
+        get() = runningTaskIDs.size
+
+    // 排队中的任务数量（包含已停止但尚未出队的任务）
+    @get:Synchronized
+    val waitCount: Int
+        get() {
+            var count = waitQueue.size
+            hostWaitQueues.values.forEach { count += it.size }
+            return count
+        }
+
+    /**
+     * 判断任务能否立即下发
+     * @param lanes 全局通道数量，小于等于0为无限制
+     * @param hostLanes 每个主机的通道数量，小于等于0为无限制
+     */
+    @Synchronized
+    fun canDispatch(task: T, lanes: Int, hostLanes: Int): Boolean {
+        if (runningTaskIDs.contains(task.id)) return true
+        if (lanes > 0 && runningTaskIDs.size >= lanes) return false
+        return isHostAvailable(task.host, hostLanes)
+    }
+
+    /**
+     * 将任务加入排队（优先级以加入排队时为准）
+     */
+    @Synchronized
+    fun enqueue(task: T) {
+        waitQueue.offer(Entry(task, task.priority, sequence++))
+    }
+
+    /**
+     * 取出下一个可以下发的任务，若没有则返回null（取出的任务会被记录为已下发）
+     */
+    @Synchronized
+    fun poll(lanes: Int, hostLanes: Int): T? {
+        if (lanes > 0 && runningTaskIDs.size >= lanes) return null
+        while (true) {
+            val entry = waitQueue.poll() ?: return null
+            // 已停止或已被重新下发的任务直接跳过
+            if (!entry.task.isWait || runningTaskIDs.contains(entry.task.id)) continue
+            val host = entry.task.host
+            if (!isHostAvailable(host, hostLanes)) {
+                hostWaitQueues.getOrPut(host) { PriorityQueue() }.offer(entry)
+                continue
+            }
+            onDispatch(entry.task)
+            return entry.task
+        }
+    }
+
+    /**
+     * 记录任务已下发
+     */
+    @Synchronized
+    fun onDispatch(task: T) {
+        if (!runningTaskIDs.add(task.id)) return
+        val host = task.host
+        hostRunningCounts[host] = (hostRunningCounts[host] ?: 0) + 1
+    }
+
+    /**
+     * 记录任务已结束，并将该主机搁置的任务重新加入排队
+     */
+    @Synchronized
+    fun onFinish(task: T) {
+        if (!runningTaskIDs.remove(task.id)) return
+        val host = task.host
+        val count = (hostRunningCounts[host] ?: 1) - 1
+        if (count <= 0) hostRunningCounts.remove(host) else hostRunningCounts[host] = count
+        hostWaitQueues.remove(host)?.let { waitQueue.addAll(it) }
+    }
+
+    /**
+     * 清空调度器
+     */
+    @Synchronized
+    fun clear() {
+        waitQueue.clear()
+        hostWaitQueues.clear()
+        runningTaskIDs.clear()
+        hostRunningCounts.clear()
+    }
+
+    private fun isHostAvailable(host: String, hostLanes: Int): Boolean =
+        hostLanes <= 0 || (hostRunningCounts[host] ?: 0) < hostLanes
+
+    /**
+     * 排队项（优先级高的在前，相同优先级时先加入的在前）
+     */
+    private class Entry<T : NetworkTask<*>>(
+        val task: T,
+        val priority: Int,
+        val sequence: Long
+    ) : Comparable<Entry<T>> {
+        override fun compareTo(other: Entry<T>): Int =
+            if (priority != other.priority) other.priority.compareTo(priority)
+            else sequence.compareTo(other.sequence)
+    }
+}
+
+/**
+ * 任务地址的主机名（用于按主机限制运行数量）
+ */
+val NetworkTask<*>.host: String get() = url.toHttpUrlOrNull()?.host ?: url
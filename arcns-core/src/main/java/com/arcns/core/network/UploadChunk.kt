@@ -0,0 +1,206 @@
+package com.arcns.core.network
+
+import com.arcns.core.file.cacheDirPath
+import com.arcns.core.file.tryClose
+import com.arcns.core.util.LOG
+import com.arcns.core.util.toMD5
+import okhttp3.Request
+import java.io.*
+import java.util.*
+
+// 分片上传记录文件的后缀名
+const val UPLOAD_CHUNK_STATE_FILE_SUFFIX = ".chunks"
+
+// 默认的分片大小
+const val UPLOAD_CHUNK_SIZE = 4 * 1024 * 1024L
+
+/**
+ * 分片上传协议
+ */
+enum class UploadChunkProtocol {
+    ContentRange, // 每个分片使用Content-Range、Upload-Offset、Upload-Length及上传标识请求头（默认PUT，支持并行上传）
+    Tus // tus协议（默认PATCH，使用Tus-Resumable与Upload-Offset请求头，需要按顺序上传，上传地址需已创建）
+}
+
+/**
+ * 分片上传配置
+ */
+class UploadChunkOptions(
+    var chunkSize: Long = UPLOAD_CHUNK_SIZE,// 分片大小
+    var parallelCount: Int = 3,// 同时上传的分片数量（tus协议固定为1）
+    var retryPolicy: NetworkRetryPolicy = NetworkRetryPolicy(),// 单个分片的重试策略（退避、抖动、Retry-After及主机熔断）
+    var protocol: UploadChunkProtocol = UploadChunkProtocol.ContentRange,// 分片上传协议
+    var url: String? = null,// 分片上传地址（若为null，则使用任务的上传地址）
+    var method: String? = null,// 分片上传的请求方法（若为null，则根据协议自动选择）
+    var uploadIDHeader: String = "Upload-ID",// 上传标识请求头（ContentRange协议使用，同一文件的标识保持不变，以便服务器拼接分片）
+    var stateDirPath: String? = null,// 已完成分片的记录保存目录（若为null，则使用缓存目录）
+    // 自定义分片请求（Request）回调，能够使用该回调对请求进行操作
+    var onCustomChunkRequest: ((UploadTask, UploadTaskFileParameter, UploadChunk, Request.Builder) -> Unit)? = null
+) {
+    // 实际同时上传的分片数量
+    val actualParallelCount: Int
+        get() = if (protocol == UploadChunkProtocol.Tus) 1 else maxOf(parallelCount, 1)
+
+    // 实际的请求方法
+    val actualMethod: String
+        get() = method ?: if (protocol == UploadChunkProtocol.Tus) "PATCH" else "PUT"
+}
+
+/**
+ * 上传分片
+ */
+class UploadChunk(
+    val index: Int,// 分片序号
+    val offset: Long,// 分片在文件中的位置
+    val length: Long// 分片长度
+) {
+    // 已重试次数
+    var attempts: Int = 0
+
+    // 分片结束位置（包含）
+    val end: Long get() = offset + length - 1
+}
+
+/**
+ * 分片上传记录（以位图记录已完成的分片，用于断点续传）
+ */
+class UploadChunkState(
+    val file: File,// 记录文件
+    val total: Long,// 文件总长度
+    val chunkSize: Long,// 分片大小
+    private val completed: BitSet = BitSet()
+) {
+    // 分片数量
+    val chunkCount: Int = if (total <= 0) 1 else ((total + chunkSize - 1) / chunkSize).toInt()
+
+    // 已完成分片的长度
+    var completedLength: Long = 0
+        private set
+
+    init {
+        var index = completed.nextSetBit(0)
+        while (index in 0 until chunkCount) {
+            completedLength += getChunk(index).length
+            index = completed.nextSetBit(index + 1)
+        }
+    }
+
+    // 全部分片是否已完成
+    @get:Synchronized
+    val isAllCompleted: Boolean
+        get() = completed.cardinality() >= chunkCount
+
+    /**
+     * 获取分片
+     */
+    fun getChunk(index: Int): UploadChunk {
+        val offset = index * chunkSize
+        return UploadChunk(index, offset, minOf(chunkSize, total - offset))
+    }
+
+    /**
+     * 分片是否已完成
+     */
+    @Synchronized
+    fun isCompleted(index: Int): Boolean = completed.get(index)
+
+    /**
+     * 记录分片已完成并保存
+     */
+    @Synchronized
+    fun complete(chunk: UploadChunk) {
+        if (completed.get(chunk.index)) return
+        completed.set(chunk.index)
+        completedLength += chunk.length
+        save()
+    }
+
+    /**
+     * 重置分片为未完成
+     */
+    @Synchronized
+    fun reset(chunk: UploadChunk) {
+        if (!completed.get(chunk.index)) return
+        completed.clear(chunk.index)
+        completedLength -= chunk.length
+    }
+
+    /**
+     * 保存记录（先写入临时文件再重命名，避免进程被杀死时记录文件损坏）
+     */
+    @Synchronized
+    fun save() {
+        val tempFile = File(file.absolutePath + ".tmp")
+        try {
+            file.parentFile?.mkdirs()
+            val output = DataOutputStream(BufferedOutputStream(FileOutputStream(tempFile)))
+            try {
+                val bitmap = completed.toByteArray()
+                output.writeLong(total)
+                output.writeLong(chunkSize)
+                output.writeInt(bitmap.size)
+                output.write(bitmap)
+                output.flush()
+            } finally {
+                output.tryClose()
+            }
+            if (!tempFile.renameTo(file)) {
+                file.delete()
+                tempFile.renameTo(file)
+            }
+        } catch (e: Exception) {
+            LOG("UploadChunkState save error " + e.message)
+        }
+    }
+
+    /**
+     * 删除记录
+     */
+    fun delete() = file.delete()
+
+    companion object {
+        /**
+         * 读取记录，若记录不存在、已损坏或与当前文件不一致，则返回新的记录
+         */
+        fun load(file: File, total: Long, chunkSize: Long): UploadChunkState {
+            if (file.exists()) {
+                var input: DataInputStream? = null
+                try {
+                    input = DataInputStream(BufferedInputStream(FileInputStream(file)))
+                    if (input.readLong() == total && input.readLong() == chunkSize) {
+                        val bitmap = ByteArray(input.readInt())
+                        input.readFully(bitmap)
+                        return UploadChunkState(file, total, chunkSize, BitSet.valueOf(bitmap))
+                    }
+                } catch (e: Exception) {
+                    LOG("UploadChunkState load error " + e.message)
+                } finally {
+                    input?.tryClose()
+                }
+            }
+            return UploadChunkState(file, total, chunkSize)
+        }
+    }
+}
+
+/**
+ * 分片上传的文件标识（根据文件路径、长度与修改时间生成，文件不变时保持不变）
+ */
+val UploadTaskFileParameter.chunkUploadID: String?
+    get() {
+        val file = uploadFilePath?.let { File(it) } ?: return null
+        return "${file.absolutePath}|${file.length()}|${file.lastModified()}".toMD5()
+    }
+
+/**
+ * 分片上传的记录文件
+ */
+val UploadTaskFileParameter.chunkStateFile: File?
+    get() {
+        val options = chunkOptions ?: return null
+        val uploadID = chunkUploadID ?: return null
+        return File(
+            options.stateDirPath ?: cacheDirPath,
+            uploadID + "_" + options.chunkSize + UPLOAD_CHUNK_STATE_FILE_SUFFIX
+        )
+    }
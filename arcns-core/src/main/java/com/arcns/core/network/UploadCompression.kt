@@ -0,0 +1,92 @@
+package com.arcns.core.network
+
+import okio.*
+import java.util.zip.Deflater
+
+/**
+ * 上传压缩算法
+ */
+enum class UploadCompressionAlgorithm(val contentEncoding: String) {
+    Gzip("gzip"),
+    Deflate("deflate");
+
+    /**
+     * 包装为压缩Sink（关闭时写入压缩结尾并关闭被包装的Sink）
+     */
+    fun wrap(sink: Sink): UploadCompressedSink = when (this) {
+        Gzip -> GzipSink(sink).let { UploadCompressedSink(it, it.deflater) }
+        Deflate -> Deflater().let { UploadCompressedSink(DeflaterSink(sink, it), it) }
+    }
+}
+
+/**
+ * 压缩Sink（正常关闭时释放Deflater，写入失败未关闭时需要调用release释放Deflater占用的本地内存）
+ */
+class UploadCompressedSink(
+    delegate: Sink,
+    private val deflater: Deflater
+) : ForwardingSink(delegate) {
+
+    /**
+     * 释放Deflater（可重复调用）
+     */
+    fun release() = deflater.end()
+}
+
+/**
+ * 上传压缩配置
+ * 文件以multipart分段上传，压缩通过分段头中的Content-Encoding声明，该头不属于HTTP标准的解码范围，
+ * 多数服务器会忽略它并把压缩后的数据当作文件内容保存，因此需要确认服务器会按分段头解压后，将isPartEncodingSupported设置为true才会压缩
+ */
+class UploadCompressionOptions(
+    var algorithm: UploadCompressionAlgorithm = UploadCompressionAlgorithm.Gzip,// 压缩算法
+    // 需要压缩的MimeType（支持"text/*"形式的通配），若为null则压缩所有文件
+    var mimeTypes: List<String>? = DEFAULT_MIME_TYPES,
+    var minLength: Long = 1024,// 文件长度小于该值时不压缩（长度未知时总是压缩）
+    var isPartEncodingSupported: Boolean = false// 服务器是否支持按分段的Content-Encoding解压（为false时不压缩）
+) {
+
+    /**
+     * 是否需要压缩
+     */
+    fun isCompressible(mimeType: String, contentLength: Long): Boolean {
+        if (!isPartEncodingSupported) return false
+        if (contentLength in 0 until minLength) return false
+        val rules = mimeTypes ?: return true
+        val type = mimeType.substringBefore(';').trim().toLowerCase()
+        return rules.any {
+            val rule = it.toLowerCase()
+            if (rule.endsWith("/*")) type.startsWith(rule.dropLast(1)) else type == rule
+        }
+    }
+
+    companion object {
+        // 默认需要压缩的MimeType（文本、日志及轨迹导出等压缩率较高的类型）
+        val DEFAULT_MIME_TYPES = listOf(
+            "text/*",
+            "application/json",
+            "application/xml",
+            "application/gpx+xml",
+            "application/vnd.google-earth.kml+xml",
+            "application/geo+json",
+            "application/x-ndjson",
+            "application/csv"
+        )
+    }
+}
+
+/**
+ * 统计压缩后长度的Sink（关闭时仅刷新，不关闭被包装的Sink，以便压缩结束后继续写入Multipart的其他部分）
+ */
+class UploadCompressedCountingSink(
+    delegate: Sink,
+    private val onWrite: (Long) -> Unit// 写入压缩数据后回调（长度）
+) : ForwardingSink(delegate) {
+
+    override fun write(source: Buffer, byteCount: Long) {
+        super.write(source, byteCount)
+        onWrite(byteCount)
+    }
+
+    override fun close() = flush()
+}
@@ -5,13 +5,20 @@ import androidx.lifecycle.LifecycleObserver
 import androidx.lifecycle.LifecycleOwner
 import androidx.lifecycle.OnLifecycleEvent
 import com.arcns.core.APP
+import com.arcns.core.file.tryClose
 import com.arcns.core.util.EventObserver
 import com.arcns.core.util.LOG
 import okhttp3.*
+import okhttp3.MediaType.Companion.toMediaTypeOrNull
 import okio.Buffer
 import okio.BufferedSink
+import okio.buffer
+import java.io.File
 import java.io.IOException
+import java.io.RandomAccessFile
 import java.lang.Appendable
+import java.util.ArrayDeque
+import java.util.concurrent.atomic.AtomicLong
 
 
 // 上传任务的文件成功回调
@@ -21,6 +28,9 @@ typealias OnUploadFileFailure = (UploadTaskFileParameterUpdate, Exception?) -> U
 // 上传任务的文件进度更新回调
 typealias OnUploadFileProgressUpdate = (UploadTaskFileParameterUpdate, NetworkTaskProgress) -> Unit
 
+// tus协议分片请求的内容类型
+private const val TUS_CONTENT_TYPE = "application/offset+octet-stream"
+
 /**
  * 上传管理器
  */
@@ -65,9 +75,12 @@ class UploadManager {
 
     private fun handleUploadManagerNotify(notify: UploadManagerNotify) {
         when (notify.type) {
-            UploadManagerNotifyType.Upload -> startUpLoad(notify.task)
-            UploadManagerNotifyType.UpdateNotification -> managerData.updateNotification(notify.task)
+            UploadManagerNotifyType.Upload -> notify.tasks.forEach { startUpLoad(it) }
+            UploadManagerNotifyType.UpdateNotification -> notify.tasks.forEach {
+                managerData.updateNotification(it)
+            }
         }
+        notify.notificationTasks.forEach { managerData.updateNotification(it) }
     }
 
     /**
@@ -90,34 +103,75 @@ class UploadManager {
     @Synchronized
     private fun startUpLoad(task: UploadTask): Boolean {
         if (task.isRunning) return false
-        // 开始上传
-        val bodyBuilder = MultipartBody.Builder().setType(MultipartBody.FORM)//设置类型
-        // 添加参数
-        task.parameters.forEach {
-            when (it) {
-                is UploadTaskParameter -> bodyBuilder.addFormDataPart(it.name, it.value) // 普通参数
-                is UploadTaskFileParameter -> bodyBuilder.addFormDataPart( //文件参数
-                    it.name,
-                    it.fileName,
-                    createUploadFileRequestBody( // 创建文件RequestBody
-                        task,
-                        it,
-                        managerData.perByteCount,
-                        task.progressUpdateInterval ?: managerData.progressUpdateInterval
-                    )
-                )
+        // 逐个文件上传
+        task.perFileOptions?.let {
+            LOG("UploadManager ${task.id} start per file upload")
+            task.onChangeStateToRunning(null)
+            UploadPerFileRunner(task, it).start()
+            return true
+        }
+        // 分片上传的文件参数
+        val chunkParameters = task.fileParameters.filter { it.isChunkUpload }
+        if (chunkParameters.isEmpty()) {
+            // 标准上传
+            uploadMultipart(task, task.parameters)
+            return true
+        }
+        LOG("UploadManager ${task.id} start chunk upload")
+        // 更新任务状态为运行中（分片请求由分片上传器管理）
+        task.onChangeStateToRunning(null)
+        // 按顺序分片上传文件参数
+        uploadChunkParameters(task, chunkParameters, 0, null)
+        return true
+    }
+
+    /**
+     * 按顺序分片上传文件参数，全部完成后将剩余参数（普通参数及非分片上传的文件参数）以MultipartBody上传
+     */
+    private fun uploadChunkParameters(
+        task: UploadTask,
+        chunkParameters: List<UploadTaskFileParameter>,
+        index: Int,
+        lastResponse: Response?
+    ) {
+        if (index >= chunkParameters.size) {
+            val otherParameters = task.parameters.filter { !chunkParameters.contains(it) }
+            if (otherParameters.isEmpty() && lastResponse != null) {
+                uploadSuccess(task, lastResponse)
+            } else {
+                lastResponse?.close()
+                uploadMultipart(task, otherParameters)
             }
+            return
         }
-        // 自定义MultipartBody回调
-        managerData.onCustomMultipartBody?.invoke(task, bodyBuilder)
-        //
+        UploadChunkedFileRunner(task, chunkParameters[index]) { response, e ->
+            // 上一个文件的最终响应不再作为任务结果，释放连接
+            lastResponse?.close()
+            if (e == null && response?.isSuccessful == true) {
+                uploadChunkParameters(task, chunkParameters, index + 1, response)
+            } else {
+                uploadFailure(task, e, response)
+            }
+        }.start()
+    }
+
+    /**
+     * 以MultipartBody上传参数
+     */
+    private fun uploadMultipart(
+        task: UploadTask,
+        parameters: List<UploadTaskBaseParameter>,
+        url: String = task.url
+    ) {
+        val body = createMultipartBody(task, parameters)
         LOG("UploadManager ${task.id} start")
         (task.okHttpClient ?: managerData.httpClient).newCall(
             Request.Builder().apply {
                 // 设置下载路径
-                url(task.url)
+                url(url)
+                tag(NetworkTask::class.java, task)
                 // 设置MultipartBody
-                post(bodyBuilder.build())
+                post(body)
                 // 自定义Request回调
                 (task.onCustomRequest ?: managerData.onCustomRequest)?.invoke(task, this)
             }.build()
@@ -127,49 +181,153 @@ class UploadManager {
             // 封装请求回调处理
             enqueue(object : Callback {
                 override fun onFailure(call: Call, e: IOException) {
-                    LOG("UploadManager ${task.id} task error " + e.message)
-                    // 更新状态
-                    task.onChangeStateToFailureIfNotStop()
-                    // 失败回调
-                    APP.runOnUiThread {
-                        task.onTaskFailure?.invoke(task, e, null)
-                        managerData.onTaskFailure?.invoke(task, e, null)
-                    }
-                    // 更新到通知栏
-                    managerData.updateNotification(task)
-                    managerData.onEventTaskUpdateByState(task)
+                    uploadFailure(task, e, null)
                 }
 
                 override fun onResponse(call: Call, response: Response) {
                     if (response.isSuccessful) {
-                        LOG("UploadManager ${task.id} task ok")
-                        // 更新状态
-                        task.onChangeStateToSuccess()
-                        // 成功回调
-                        APP.runOnUiThread {
-                            task.onTaskSuccess?.invoke(task, response)
-                            managerData.onTaskSuccess?.invoke(task, response)
-                        }
-                        // 更新到通知栏
-                        managerData.updateNotification(task)
-                        managerData.onEventTaskUpdateByState(task)
+                        uploadSuccess(task, response)
                     } else {
-                        LOG("UploadManager ${task.id} task not ok ")
-                        // 更新状态
-                        task.onChangeStateToFailureIfNotStop()
-                        // 失败回调
-                        APP.runOnUiThread {
-                            task.onTaskFailure?.invoke(task, null, response)
-                            managerData.onTaskFailure?.invoke(task, null, response)
-                        }
-                        // 更新到通知栏
-                        managerData.updateNotification(task)
-                        managerData.onEventTaskUpdateByState(task)
+                        uploadFailure(task, null, response)
                     }
                 }
             })
         }
-        return true
+    }
+
+    /**
+     * 创建MultipartBody
+     */
+    private fun createMultipartBody(
+        task: UploadTask,
+        parameters: List<UploadTaskBaseParameter>,
+        isReportFileResult: Boolean = true// 文件写入结束后是否回调文件成功或失败（若为false，则写入失败时抛出异常）
+    ): MultipartBody {
+        // 开始上传
+        val bodyBuilder = MultipartBody.Builder().setType(MultipartBody.FORM)//设置类型
+        // 添加参数
+        parameters.forEach {
+            when (it) {
+                is UploadTaskParameter -> bodyBuilder.addFormDataPart(it.name, it.value) // 普通参数
+                is UploadTaskFileParameter -> {
+                    val compressionAlgorithm = it.compressionAlgorithm
+                    // 创建文件RequestBody
+                    val body = createUploadFileRequestBody(
+                        task,
+                        it,
+                        managerData.perByteCount,
+                        task.progressUpdateInterval ?: managerData.progressUpdateInterval,
+                        compressionAlgorithm,
+                        isReportFileResult
+                    )
+                    if (compressionAlgorithm == null) {
+                        bodyBuilder.addFormDataPart(it.name, it.fileName, body) //文件参数
+                    } else {
+                        bodyBuilder.addPart( //压缩的文件参数（在分段头中声明Content-Encoding）
+                            Headers.headersOf(
+                                "Content-Disposition",
+                                "form-data; name=${it.name.quoted}; filename=${it.fileName.quoted}",
+                                "Content-Encoding",
+                                compressionAlgorithm.contentEncoding
+                            ),
+                            body
+                        )
+                    }
+                }
+            }
+        }
+        // 自定义MultipartBody回调
+        managerData.onCustomMultipartBody?.invoke(task, bodyBuilder)
+        return bodyBuilder.build()
+    }
+
+    /**
+     * 上传任务成功
+     */
+    private fun uploadSuccess(task: UploadTask, response: Response) {
+        LOG("UploadManager ${task.id} task ok")
+        (task.retryPolicy ?: managerData.retryPolicy)?.onSuccess(task)
+        // 更新状态
+        task.onChangeStateToSuccess()
+        // 成功回调
+        APP.runOnUiThread {
+            task.onTaskSuccess?.invoke(task, response)
+            managerData.onTaskSuccess?.invoke(task, response)
+        }
+        // 更新到通知栏
+        managerData.updateNotification(task)
+        managerData.onEventTaskUpdateByState(task)
+    }
+
+    /**
+     * 上传任务失败，若符合重试策略则等待后重新上传（已完成的分片或文件不会重复上传）
+     */
+    private fun uploadFailure(task: UploadTask, e: Exception?, response: Response?) {
+        val retryPolicy = task.retryPolicy ?: managerData.retryPolicy
+        val delayMillis = retryPolicy?.nextRetryDelay(task, e, response)
+        if (retryPolicy == null || delayMillis == null) {
+            retryPolicy?.onFailure(task)
+            onUploadFailure(task, e, response)
+            return
+        }
+        LOG("UploadManager ${task.id} retry ${task.retryMetrics.attempts} after ${delayMillis}ms")
+        response?.close()
+        task.waitForRetry(delayMillis, onRetry = {
+            task.onChangeStateToNone()
+            startUpLoad(task)
+        }, onStop = {
+            retryPolicy.onFailure(task)
+            onUploadFailure(task, e, response)
+        })
+    }
+
+    /**
+     * 上传任务失败回调
+     */
+    private fun onUploadFailure(task: UploadTask, e: Exception?, response: Response?) {
+        LOG("UploadManager ${task.id} task error " + (e?.message ?: response?.code))
+        // 更新状态
+        task.onChangeStateToFailureIfNotStop()
+        // 失败回调
+        APP.runOnUiThread {
+            task.onTaskFailure?.invoke(task, e, response)
+            managerData.onTaskFailure?.invoke(task, e, response)
+        }
+        // 更新到通知栏
+        managerData.updateNotification(task)
+        managerData.onEventTaskUpdateByState(task)
+    }
+
+    /**
+     * 上传任务的文件成功回调
+     */
+    private fun uploadFileSuccess(task: UploadTask, parameter: UploadTaskFileParameter) {
+        // 上传任务的文件成功回调
+        APP.runOnUiThread {
+            task.onUploadFileSuccess?.invoke(UploadTaskFileParameterUpdate(task, parameter))
+            managerData.onUploadFileSuccess?.invoke(UploadTaskFileParameterUpdate(task, parameter))
+        }
+        // 更新到通知栏
+        LOG("UploadManager ${task.id} parameter ok ")
+        parameter.state = TaskState.Success
+        parameter.updateNotification(task.notificationOptions, managerData.notificationOptions)
+        managerData.onEventTaskUpdateByProgress(UploadTaskFileParameterUpdate(task, parameter))
+    }
+
+    /**
+     * 上传任务的文件失败回调
+     */
+    private fun uploadFileFailure(task: UploadTask, parameter: UploadTaskFileParameter, e: Exception?) {
+        //上传任务的文件失败回调
+        APP.runOnUiThread {
+            task.onUploadFileFailure?.invoke(UploadTaskFileParameterUpdate(task, parameter), e)
+            managerData.onUploadFileFailure?.invoke(UploadTaskFileParameterUpdate(task, parameter), e)
+        }
+        // 更新到通知栏
+        LOG("UploadManager ${task.id} parameter error " + e?.message)
+        parameter.state = if (task.isStop) task.state else TaskState.Failure
+        parameter.updateNotification(task.notificationOptions, managerData.notificationOptions)
+        managerData.onEventTaskUpdateByProgress(UploadTaskFileParameterUpdate(task, parameter))
     }
 
     /**
@@ -179,7 +337,9 @@ class UploadManager {
         task: UploadTask,
         parameter: UploadTaskFileParameter,
         uploadPerByteCount: Int,
-        updateInterval: Long
+        updateInterval: Long,
+        compressionAlgorithm: UploadCompressionAlgorithm? = null,// 压缩算法（为null时不压缩）
+        isReportFileResult: Boolean = true// 写入结束后是否回调文件成功或失败（若为false，则写入失败时抛出异常）
     ) =
         object : RequestBody() {
 
@@ -189,124 +349,105 @@ class UploadManager {
 
             private var lastProgressUpdateTime: Long = 0
 
+            // 进度更新对象（复用，避免每次进度更新都创建对象）
+            private val progressUpdate = UploadTaskFileParameterUpdate(task, parameter)
+
             override fun contentType(): MediaType? = parameter.fileMediaType
 
-            override fun contentLength(): Long = parameter.contentLength
+            // 压缩后的长度无法预知，此时使用分块传输
+            override fun contentLength(): Long =
+                if (compressionAlgorithm != null) -1 else parameter.contentLength
+
+            // 已写出的压缩后长度
+            private var compressedLength: Long = 0
 
             override fun writeTo(sink: BufferedSink) {
                 LOG("UploadManager ${task.id} writeTo")
                 var current: Long = 0
+                compressedLength = 0
                 parameter.state = TaskState.Running
                 updateProgress(current)
                 try {
                     if (parameter.isSupportBreakpointResume) {
                         // 断点续传
                         current = parameter.breakpoint
-                        // 获取支持断点续传的文件源
-                        val source = parameter.getBreakpointResumeSource()
-                            ?: throw Exception("file parameter source not empty")
-                        // 开始循环上传
-                        val bytes = ByteArray(uploadPerByteCount)
-                        var len: Int
-                        updateProgress(current)
-                        while (source.read(bytes).also { len = it } != -1) {
-                            if (task.isStop) {
-                                throw Exception("task is stop")
-                            }
-                            sink.write(bytes, 0, len)
-                            current += len
-                            // 更新进度回调
+                        // 获取支持断点续传的文件源（内存映射，直接从映射内存写入sink）
+                        val source = UploadMappedSource(
+                            parameter.getBreakpointResumeSource()?.channel
+                                ?: throw Exception("file parameter source not empty"),
+                            current
+                        )
+                        try {
+                            // 开始循环上传
+                            var len: Int
                             updateProgress(current)
+                            while (source.read(sink, uploadPerByteCount).also { len = it } != -1) {
+                                if (task.isStop) {
+                                    throw Exception("task is stop")
+                                }
+                                current += len
+                                // 限速
+                                task.acquireBandwidth(len.toLong(), managerData.rateLimiter)
+                                // 更新进度回调
+                                updateProgress(current)
+                            }
+                        } finally {
+                            // 立即解除映射，避免长时间上传时映射窗口堆积
+                            source.release()
                         }
                     } else {
                         // 标准上传
                         var source = parameter.getStandardSource()
                             ?: throw Exception("file parameter source not empty")
-                        // 开始循环上传
-                        val buf = Buffer()
-                        var len: Long
-                        updateProgress(current)
-                        while (source.read(buf, uploadPerByteCount.toLong())
-                                .also { len = it } != -1L
-                        ) {
-                            sink.write(buf, len)
-                            current += len
-                            // 更新进度回调
+                        // 启用压缩时，数据经压缩后写入sink，并按压缩后的长度限速
+                        val compressedSink = compressionAlgorithm?.wrap(
+                            UploadCompressedCountingSink(sink) {
+                                compressedLength += it
+                                task.acquireBandwidth(it, managerData.rateLimiter)
+                            }
+                        )
+                        val output = compressedSink?.buffer() ?: sink
+                        try {
+                            // 开始循环上传
+                            val buf = Buffer()
+                            var len: Long
                             updateProgress(current)
+                            while (source.read(buf, uploadPerByteCount.toLong())
+                                    .also { len = it } != -1L
+                            ) {
+                                if (task.isStop) {
+                                    throw Exception("task is stop")
+                                }
+                                output.write(buf, len)
+                                current += len
+                                // 限速
+                                if (compressionAlgorithm == null) task.acquireBandwidth(len, managerData.rateLimiter)
+                                // 更新进度回调
+                                updateProgress(current)
+                            }
+                            // 写入压缩结尾（不会关闭sink）
+                            if (output !== sink) output.close()
+                        } finally {
+                            // 写入失败时压缩Sink未关闭，需要释放Deflater的本地内存
+                            compressedSink?.release()
                         }
                     }
                     // 上传完成后，再更新一次进度回调
                     updateProgress(current, true)
                     // 上传任务的文件成功回调
-                    uploadFileSuccess()
+                    if (isReportFileResult) uploadFileSuccess(task, parameter)
                 } catch (e: Exception) {
                     e.printStackTrace()
+                    // 由调用方根据响应回调文件结果
+                    if (!isReportFileResult) throw e as? IOException ?: IOException(e.message, e)
                     // 上传任务的文件失败回调
-                    uploadFileFailure(e)
+                    uploadFileFailure(task, parameter, e)
                 } finally {
                     // 释放连接
                     parameter.closeSource()
                 }
             }
 
-            //上传任务的文件成功回调
-            private fun uploadFileSuccess() {
-                // 上传任务的文件成功回调
-                APP.runOnUiThread {
-                    task.onUploadFileSuccess?.invoke(UploadTaskFileParameterUpdate(task, parameter))
-                    managerData.onUploadFileSuccess?.invoke(
-                        UploadTaskFileParameterUpdate(
-                            task,
-                            parameter
-                        )
-                    )
-                }
-                // 更新到通知栏
-                LOG("UploadManager ${task.id} parameter ok ")
-                parameter.state = TaskState.Success
-                parameter.updateNotification(
-                    task.notificationOptions,
-                    this@UploadManager.managerData.notificationOptions
-                )
-                managerData.onEventTaskUpdateByProgress(
-                    UploadTaskFileParameterUpdate(
-                        task,
-                        parameter
-                    )
-                )
-            }
-
-            //上传任务的文件失败回调
-            private fun uploadFileFailure(e: Exception) {
-                //上传任务的文件失败回调
-                APP.runOnUiThread {
-                    task.onUploadFileFailure?.invoke(
-                        UploadTaskFileParameterUpdate(task, parameter),
-                        e
-                    )
-                    managerData.onUploadFileFailure?.invoke(
-                        UploadTaskFileParameterUpdate(
-                            task,
-                            parameter
-                        ), e
-                    )
-                }
-                // 更新到通知栏
-                LOG("UploadManager ${task.id} parameter error " + e.message)
-                parameter.state = if (task.isStop) task.state else TaskState.Failure
-                parameter.updateNotification(
-                    task.notificationOptions,
-                    this@UploadManager.managerData.notificationOptions
-                )
-                managerData.onEventTaskUpdateByProgress(
-                    UploadTaskFileParameterUpdate(
-                        task,
-                        parameter
-                    )
-                )
-            }
-
-
             /**
              * 上传任务的文件进度回调
              */
@@ -315,37 +456,463 @@ class UploadManager {
                 if (!isEnd && System.currentTimeMillis() - lastProgressUpdateTime < updateInterval) return
                 lastProgressUpdateTime = System.currentTimeMillis()
                 // 避免相同进度重复回调
-                if (parameter.currentProgress?.current == current) return
-                // 更新到任务中，然后进行回调
-                APP.runOnUiThread {
-                    parameter.updateProgress(current).run {
-                        task.onUploadFileProgressUpdate?.invoke(
-                            UploadTaskFileParameterUpdate(
-                                task,
-                                parameter
-                            ), this
-                        )
-                        managerData.onProgressUpdate?.invoke(
-                            UploadTaskFileParameterUpdate(
-                                task,
-                                parameter
-                            ), this
-                        )
+                if (parameter.latestProgressCurrent == current && !isEnd) return
+                // 写入最新进度，由管理器数据合并后在主线程中按帧分发
+                parameter.postProgress(current, compressedLength)
+                managerData.postProgress(progressUpdate)
+            }
+        }
+
+    /**
+     * 逐个文件上传器（每个文件参数以单独的请求上传，全部成功后发送提交请求，已成功的文件在任务重新上传时跳过）
+     */
+    private inner class UploadPerFileRunner(
+        private val task: UploadTask,
+        private val options: UploadPerFileOptions
+    ) {
+        // 等待上传的文件参数
+        private val pendingParameters = ArrayDeque<UploadTaskFileParameter>()
+
+        // 上传中的文件请求（分片上传的文件由分片上传器管理，不在其中）
+        private val runningCalls = HashMap<UploadTaskFileParameter, Call>()
+
+        // 上传中的文件数量
+        private var runningCount = 0
+
+        // 等待重试的文件数量
+        private var retryingCount = 0
+
+        // 文件的已重试次数
+        private val attempts = HashMap<UploadTaskFileParameter, Int>()
+
+        // 失败的文件数量
+        private var failureCount = 0
+
+        // 最后一个失败文件的异常与响应
+        private var lastFailureException: Exception? = null
+        private var lastFailureResponse: Response? = null
+
+        // 最后一个成功文件的响应
+        private var lastResponse: Response? = null
+
+        // 是否已结束
+        private var isEnd = false
+
+        /**
+         * 开始上传
+         */
+        @Synchronized
+        fun start() {
+            task.fileParameters.forEach {
+                if (it.state != TaskState.Success) pendingParameters.add(it)
+            }
+            dispatch()
+        }
+
+        /**
+         * 分发文件，保持上传中的文件数量不超过同时上传的文件数量
+         */
+        @Synchronized
+        private fun dispatch() {
+            if (isEnd) return
+            if (task.isStop) {
+                end()
+                lastResponse?.close()
+                uploadFailure(task, Exception("task is stop"), null)
+                return
+            }
+            if (pendingParameters.isEmpty() && runningCount == 0 && retryingCount == 0) {
+                end()
+                if (failureCount > 0) {
+                    lastResponse?.close()
+                    uploadFailure(task, lastFailureException, lastFailureResponse)
+                    return
+                }
+                // 提交普通参数
+                val otherParameters = task.parameters.filter { it !is UploadTaskFileParameter }
+                val response = lastResponse
+                if (otherParameters.isEmpty() && !options.isAlwaysCommit && response != null) {
+                    uploadSuccess(task, response)
+                } else {
+                    response?.close()
+                    uploadMultipart(task, otherParameters, options.commitUrl ?: task.url)
+                }
+                return
+            }
+            while (runningCount < options.actualParallelCount && pendingParameters.isNotEmpty()) {
+                val parameter = pendingParameters.poll() ?: break
+                runningCount++
+                if (parameter.isChunkUpload) {
+                    // 分片上传的文件（由分片上传器回调文件结果及重试分片）
+                    UploadChunkedFileRunner(task, parameter) { response, e ->
+                        onParameterEnd(parameter, response, e, true)
+                    }.start()
+                } else {
+                    runningCalls[parameter] = newFileCall(parameter)
+                }
+            }
+        }
+
+        /**
+         * 创建并执行文件请求
+         */
+        private fun newFileCall(parameter: UploadTaskFileParameter): Call =
+            (task.okHttpClient ?: managerData.httpClient).newCall(
+                Request.Builder().apply {
+                    url(options.fileUrl ?: task.url)
+                    tag(NetworkTask::class.java, task)
+                    post(createMultipartBody(task, listOf(parameter), false))
+                    // 自定义Request回调
+                    (task.onCustomRequest ?: managerData.onCustomRequest)?.invoke(task, this)
+                }.build()
+            ).apply {
+                // 附加到任务，停止任务时一并取消
+                task.attachCall(this)
+                enqueue(object : Callback {
+                    override fun onFailure(call: Call, e: IOException) {
+                        task.detachCall(call)
+                        onParameterEnd(parameter, null, e, false)
+                    }
+
+                    override fun onResponse(call: Call, response: Response) {
+                        task.detachCall(call)
+                        onParameterEnd(parameter, response, null, false)
+                    }
+                })
+            }
+
+        /**
+         * 文件上传结束
+         */
+        @Synchronized
+        private fun onParameterEnd(
+            parameter: UploadTaskFileParameter,
+            response: Response?,
+            e: Exception?,
+            isReported: Boolean// 文件结果是否已回调
+        ) {
+            runningCount--
+            runningCalls.remove(parameter)
+            if (isEnd) {
+                response?.close()
+                return
+            }
+            if (e == null && response?.isSuccessful == true) {
+                if (!isReported) options.retryPolicy.onRequestSuccess(task)
+                // 保留最后一个成功文件的响应（未关闭，用于任务成功回调），之前的响应释放连接
+                lastResponse?.close()
+                lastResponse = response
+                if (!isReported) uploadFileSuccess(task, parameter)
+                dispatch()
+                return
+            }
+            response?.close()
+            // 按重试策略重试（分片上传的文件已按分片重试）
+            val attempt = attempts[parameter] ?: 0
+            val delayMillis =
+                if (isReported) null else options.retryPolicy.nextRequestRetryDelay(task, attempt, e, response)
+            if (delayMillis != null) {
+                attempts[parameter] = attempt + 1
+                retryingCount++
+                LOG("UploadManager ${task.id} file ${parameter.fileName} retry ${attempt + 1} after ${delayMillis}ms")
+                task.waitForRetry(delayMillis, onRetry = {
+                    synchronized(this) {
+                        retryingCount--
+                        pendingParameters.addFirst(parameter)
+                        dispatch()
                     }
+                }, onStop = {
+                    synchronized(this) {
+                        retryingCount--
+                        dispatch()
+                    }
+                })
+                return
+            }
+            failureCount++
+            lastFailureException = e
+            lastFailureResponse = response
+            if (!isReported) uploadFileFailure(
+                task,
+                parameter,
+                e ?: Exception("file upload not ok " + response?.code)
+            )
+            dispatch()
+        }
+
+        /**
+         * 结束上传
+         */
+        private fun end() {
+            isEnd = true
+            runningCalls.values.forEach { it.cancel() }
+            runningCalls.clear()
+            pendingParameters.clear()
+        }
+    }
+
+    /**
+     * 分片上传器（将文件切分为固定大小的分片，并行上传，单个分片失败时按重试策略重试，已完成的分片记录到文件中用于断点续传）
+     */
+    private inner class UploadChunkedFileRunner(
+        private val task: UploadTask,
+        private val parameter: UploadTaskFileParameter,
+        private val onEnd: (Response?, Exception?) -> Unit// 结束回调（全部分片成功时，返回最后一个分片的响应）
+    ) {
+        private val options = parameter.chunkOptions!!
+        private val file = File(parameter.uploadFilePath!!)
+        private val uploadID = parameter.chunkUploadID!!
+        private val chunkState =
+            UploadChunkState.load(parameter.chunkStateFile!!, file.length(), options.chunkSize)
+
+        // 等待上传的分片
+        private val pendingChunks = ArrayDeque<UploadChunk>()
+
+        // 上传中的分片请求
+        private val runningCalls = HashMap<Int, Call>()
+
+        // 等待重试的分片数量
+        private var retryingCount = 0
+
+        // 上传中分片已写入的长度
+        private val runningLength = AtomicLong()
+
+        // 最后一个成功分片的响应
+        private var lastResponse: Response? = null
+
+        // 是否已结束
+        private var isEnd = false
+
+        private val updateInterval = task.progressUpdateInterval ?: managerData.progressUpdateInterval
+        private var lastProgressUpdateTime: Long = 0
+
+        // 进度更新对象（复用，避免每次进度更新都创建对象）
+        private val progressUpdate = UploadTaskFileParameterUpdate(task, parameter)
+
+        /**
+         * 开始上传
+         */
+        @Synchronized
+        fun start() {
+            LOG("UploadManager ${task.id} chunk upload ${parameter.fileName} completed ${chunkState.completedLength}/${chunkState.total}")
+            parameter.state = TaskState.Running
+            // 全部分片已完成时（上次上传在收到最终响应前中断），重新上传最后一个分片以获取服务器的最终响应
+            if (chunkState.isAllCompleted) chunkState.reset(chunkState.getChunk(chunkState.chunkCount - 1))
+            for (index in 0 until chunkState.chunkCount) {
+                if (!chunkState.isCompleted(index)) pendingChunks.add(chunkState.getChunk(index))
+            }
+            updateProgress(true)
+            dispatch()
+        }
+
+        /**
+         * 分发分片，保持上传中的分片数量不超过同时上传的分片数量
+         */
+        @Synchronized
+        private fun dispatch() {
+            if (isEnd) return
+            if (task.isStop) {
+                end(null, Exception("task is stop"))
+                return
+            }
+            if (pendingChunks.isEmpty() && runningCalls.isEmpty() && retryingCount == 0) {
+                chunkState.delete()
+                end(lastResponse, null)
+                return
+            }
+            while (runningCalls.size < options.actualParallelCount && pendingChunks.isNotEmpty()) {
+                val chunk = pendingChunks.poll() ?: break
+                runningCalls[chunk.index] = newChunkCall(chunk)
+            }
+        }
+
+        /**
+         * 创建并执行分片请求
+         */
+        private fun newChunkCall(chunk: UploadChunk): Call {
+            val body = UploadChunkRequestBody(chunk)
+            return (task.okHttpClient ?: managerData.httpClient).newCall(
+                Request.Builder().apply {
+                    url(options.url ?: task.url)
+                    tag(NetworkTask::class.java, task)
+                    method(options.actualMethod, body)
+                    when (options.protocol) {
+                        UploadChunkProtocol.ContentRange -> {
+                            header(
+                                "Content-Range",
+                                if (chunk.length <= 0) "bytes */${chunkState.total}"
+                                else "bytes ${chunk.offset}-${chunk.end}/${chunkState.total}"
+                            )
+                            header("Upload-Offset", chunk.offset.toString())
+                            header("Upload-Length", chunkState.total.toString())
+                            header(options.uploadIDHeader, uploadID)
+                        }
+                        UploadChunkProtocol.Tus -> {
+                            header("Tus-Resumable", "1.0.0")
+                            header("Upload-Offset", chunk.offset.toString())
+                        }
+                    }
+                    // 自定义Request回调
+                    (task.onCustomRequest ?: managerData.onCustomRequest)?.invoke(task, this)
+                    options.onCustomChunkRequest?.invoke(task, parameter, chunk, this)
+                }.build()
+            ).apply {
+                // 附加到任务，停止任务时一并取消
+                task.attachCall(this)
+                enqueue(object : Callback {
+                    override fun onFailure(call: Call, e: IOException) {
+                        task.detachCall(call)
+                        onChunkEnd(chunk, body, null, e)
+                    }
+
+                    override fun onResponse(call: Call, response: Response) {
+                        task.detachCall(call)
+                        onChunkEnd(chunk, body, response, null)
+                    }
+                })
+            }
+        }
+
+        /**
+         * 分片请求结束
+         */
+        @Synchronized
+        private fun onChunkEnd(
+            chunk: UploadChunk,
+            body: UploadChunkRequestBody,
+            response: Response?,
+            e: IOException?
+        ) {
+            runningCalls.remove(chunk.index)
+            runningLength.addAndGet(-body.writtenLength)
+            if (isEnd) {
+                response?.close()
+                return
+            }
+            if (response?.isSuccessful == true) {
+                options.retryPolicy.onRequestSuccess(task)
+                // 保留最后一个成功分片的响应（未关闭，用于文件结束回调），之前的响应释放连接
+                lastResponse?.close()
+                lastResponse = response
+                chunkState.complete(chunk)
+                updateProgress()
+                dispatch()
+                return
+            }
+            response?.close()
+            if (task.isStop) {
+                end(null, e ?: Exception("task is stop"))
+                return
+            }
+            // 按重试策略重试
+            val delayMillis = options.retryPolicy.nextRequestRetryDelay(task, chunk.attempts, e, response)
+            if (delayMillis == null) {
+                end(response, e)
+                return
+            }
+            chunk.attempts++
+            retryingCount++
+            LOG("UploadManager ${task.id} chunk ${chunk.index} retry ${chunk.attempts} after ${delayMillis}ms")
+            task.waitForRetry(delayMillis, onRetry = {
+                synchronized(this) {
+                    retryingCount--
+                    pendingChunks.addFirst(chunk)
+                    dispatch()
+                }
+            }, onStop = {
+                synchronized(this) {
+                    retryingCount--
+                    dispatch()
                 }
-                // 更新到通知栏
-                parameter.updateNotification(
-                    task.notificationOptions,
-                    this@UploadManager.managerData.notificationOptions
+            })
+            updateProgress()
+        }
+
+        /**
+         * 结束上传
+         */
+        private fun end(response: Response?, e: Exception?) {
+            if (isEnd) return
+            isEnd = true
+            runningCalls.values.forEach { it.cancel() }
+            runningCalls.clear()
+            pendingChunks.clear()
+            if (e == null && response?.isSuccessful == true) {
+                updateProgress(true)
+                uploadFileSuccess(task, parameter)
+            } else {
+                if (lastResponse !== response) lastResponse?.close()
+                uploadFileFailure(
+                    task,
+                    parameter,
+                    e ?: Exception("chunk upload not ok " + response?.code)
                 )
-                managerData.onEventTaskUpdateByProgress(
-                    UploadTaskFileParameterUpdate(
-                        task,
-                        parameter
-                    )
+            }
+            onEnd(response, e)
+        }
+
+        /**
+         * 上传任务的文件进度回调（进度为已完成分片的长度加上上传中分片已写入的长度）
+         */
+        private fun updateProgress(isEnd: Boolean = false) {
+            val current = chunkState.completedLength + runningLength.get()
+            synchronized(progressUpdate) {
+                // 判断回调间隔，避免短时间内多次回调
+                if (!isEnd && System.currentTimeMillis() - lastProgressUpdateTime < updateInterval) return
+                lastProgressUpdateTime = System.currentTimeMillis()
+            }
+            // 避免相同进度重复回调
+            if (parameter.latestProgressCurrent == current) return
+            // 写入最新进度，由管理器数据合并后在主线程中按帧分发
+            parameter.postProgress(current)
+            managerData.postProgress(progressUpdate)
+        }
+
+        /**
+         * 分片请求体（从文件的分片位置读取）
+         */
+        private inner class UploadChunkRequestBody(private val chunk: UploadChunk) : RequestBody() {
+
+            // 已写入的长度（请求被OkHttp重试时重新计算）
+            @Volatile
+            var writtenLength: Long = 0
+                private set
+
+            override fun contentType(): MediaType? =
+                if (options.protocol == UploadChunkProtocol.Tus) TUS_CONTENT_TYPE.toMediaTypeOrNull()
+                else parameter.fileMediaType
+
+            override fun contentLength(): Long = chunk.length
+
+            override fun writeTo(sink: BufferedSink) {
+                runningLength.addAndGet(-writtenLength)
+                writtenLength = 0
+                val input = RandomAccessFile(file, "r")
+                // 映射分片所在的文件区间，直接从映射内存写入sink
+                val source = UploadMappedSource(
+                    input.channel,
+                    chunk.offset,
+                    limit = chunk.offset + chunk.length
                 )
+                try {
+                    while (writtenLength < chunk.length) {
+                        if (task.isStop) throw IOException("task is stop")
+                        val len = source.read(sink, managerData.perByteCount)
+                        if (len == -1) throw IOException("file length changed")
+                        writtenLength += len
+                        runningLength.addAndGet(len.toLong())
+                        // 限速
+                        task.acquireBandwidth(len.toLong(), managerData.rateLimiter)
+                        // 更新进度回调
+                        updateProgress()
+                    }
+                } finally {
+                    source.release()
+                    input.tryClose()
+                }
             }
         }
+    }
 
     /**
      * 释放ManagerData
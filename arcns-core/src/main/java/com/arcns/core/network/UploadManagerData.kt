@@ -2,19 +2,18 @@ package com.arcns.core.network
 
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
+import com.arcns.core.APP
 import com.arcns.core.app.NotificationOptions
 import com.arcns.core.app.cancelNotification
 import com.arcns.core.util.*
 import okhttp3.MultipartBody
 import okhttp3.OkHttpClient
 import okhttp3.Request
-import java.util.concurrent.TimeUnit
 import kotlin.collections.forEachIndexed
 
 class UploadManagerData(
-    // OkHttpClient
-    val httpClient: OkHttpClient = OkHttpClient.Builder().connectTimeout(60, TimeUnit.SECONDS)
-        .build(),
+    // OkHttpClient（默认使用共享连接池与调度器的客户端）
+    httpClient: OkHttpClient = NetworkClientFactory.sharedClient,
     // 每次上传的字节数
     var perByteCount: Int = 2048,
     // 上传任务成功回调
@@ -37,9 +36,25 @@ class UploadManagerData(
     var onCustomRequest: ((UploadTask, Request.Builder) -> Unit)? = null,
     // 上传通道数量，0为无限制，若当前下载数量超过通道数量，则超过的任务会排队等待
     var lanes: Int = 3,
+    // 全局限速器（所有上传任务共用，可与下载管理器共用同一个限速器，可在运行时修改bytesPerSecond）
+    val rateLimiter: NetworkRateLimiter = NetworkRateLimiter(),
+    // 重试策略（若为null，则失败后不重试，任务可单独设置）
+    var retryPolicy: NetworkRetryPolicy? = null,
+    // 网络条件来源（若不为null，则设置了约束的任务会根据网络条件自动暂停与恢复）
+    val constraintSource: NetworkConditionSource? = null,
+    // 网络请求统计（若不为null，则自动附加到httpClient，并统计各任务的传输速度）
+    val metrics: NetworkMetrics? = null,
     // 任务全部完成回调
     var onAllTasksCompleted: ((List<UploadTask>) -> Unit)? = null
 ) {
+    // 实际使用的OkHttpClient（附加网络请求统计后与原客户端共享连接池与调度器）
+    val httpClient: OkHttpClient = metrics?.attach(httpClient) ?: httpClient
+
+    init {
+        // 每个主机的最大请求数量不小于通道数量，避免任务在调度器中排队
+        NetworkClientFactory.ensureMaxRequestsPerHost(httpClient, lanes)
+    }
+
     val uniqueID: String = java.util.UUID.randomUUID().toString()
 
     // 任务列表
@@ -48,15 +63,53 @@ class UploadManagerData(
     val tasksLiveData: LiveData<ArrayList<UploadTask>> = _tasks
     val tasks: ArrayList<UploadTask> get() = _tasks.value ?: arrayListOf()
 
+    // 网络条件约束控制器
+    private val constraintController = constraintSource?.let {
+        NetworkConstraintController(
+            it,
+            { tasks },
+            { task -> pause(task, NetworkTaskStopReason.Constraint) },
+            { task -> upload(task) }
+        )
+    }
+
     // 任务状态更新事件
     private var _eventTaskStateUpdate = MutableLiveData<Event<UploadTask>>()
     var eventTaskStateUpdate: LiveData<Event<UploadTask>> = _eventTaskStateUpdate
 
+    // 批量任务状态更新事件（批量上传时代替逐个的任务状态更新事件，只通知一次）
+    private var _eventTasksStateUpdate = MutableLiveData<Event<List<UploadTask>>>()
+    var eventTasksStateUpdate: LiveData<Event<List<UploadTask>>> = _eventTasksStateUpdate
+
     // 任务进度更新事件
     private var _eventTaskProgressUpdate = MutableLiveData<Event<UploadTaskFileParameterUpdate>>()
     var eventTaskProgressUpdate: LiveData<Event<UploadTaskFileParameterUpdate>> =
         _eventTaskProgressUpdate
 
+    // 任务进度批量更新（每帧最多一次，值为本帧更新的文件参数列表快照）
+    private var _tasksProgressUpdate = MutableLiveData<List<UploadTaskFileParameterUpdate>>()
+    var tasksProgressUpdate: LiveData<List<UploadTaskFileParameterUpdate>> = _tasksProgressUpdate
+
+    // 进度分发中心
+    private val progressHub = NetworkProgressHub<UploadTaskFileParameterUpdate>(
+        onDispatchItem = { update ->
+            // 更新到任务中，然后进行回调
+            update.parameter.updateProgress(update.parameter.latestProgressCurrent).run {
+                update.task.onUploadFileProgressUpdate?.invoke(update, this)
+                onProgressUpdate?.invoke(update, this)
+            }
+            // 更新到通知栏
+            update.parameter.updateNotification(
+                update.task.notificationOptions,
+                notificationOptions
+            )
+        },
+        onDispatchBatch = {
+            _tasks.value = tasks
+            _tasksProgressUpdate.value = ArrayList(it)
+        }
+    )
+
     // 任务全部完成
     private var _eventAllTasksCompleted = MutableLiveData<Event<List<UploadTask>>>()
     var eventAllTasksCompleted: LiveData<Event<List<UploadTask>>> = _eventAllTasksCompleted
@@ -66,6 +119,14 @@ class UploadManagerData(
     var eventUploadManagerNotify: LiveData<Event<UploadManagerNotify>> =
         _eventUploadManagerNotify
 
+    /**
+     * 发送任务管理器操作指令（非主线程中切换到主线程逐个设置，避免postValue合并连续的指令而丢失前面的指令）
+     */
+    private fun sendManagerNotify(notify: UploadManagerNotify) {
+        if (isMainThread) _eventUploadManagerNotify.value = Event(notify)
+        else APP.mainHandler.post { _eventUploadManagerNotify.value = Event(notify) }
+    }
+
     // 根据任务状态获取任务数量
     fun getTasksNumberOnState(state: TaskState): Int = getTasksOnState(state).count()
 
@@ -80,11 +141,25 @@ class UploadManagerData(
         _eventTaskStateUpdate.fastValue = Event(task)
         if (task.isStop && task.stopReason != NetworkTaskStopReason.HumanAll) {
             uploadWaitTasks()
-            // 全部任务已完成
-            if (_tasks.value?.firstOrNull { it.state == TaskState.None || it.isRunning || it.isWait } == null) {
-                _eventAllTasksCompleted.fastEventValue = _tasks.value!!
-                onAllTasksCompleted?.invoke(_tasks.value!!)
-            }
+            checkAllTasksCompleted()
+        }
+    }
+
+    // 批量任务状态更新通知（任务列表与事件只更新一次）
+    private fun onEventTasksUpdateByState(tasks: List<UploadTask>) {
+        _tasks.fastValue = this.tasks
+        _eventTasksStateUpdate.fastEventValue = tasks
+        if (tasks.firstOrNull { it.isStop } != null) {
+            uploadWaitTasks()
+            checkAllTasksCompleted()
+        }
+    }
+
+    // 检查任务是否已全部完成
+    private fun checkAllTasksCompleted() {
+        if (_tasks.value?.firstOrNull { it.state == TaskState.None || it.isRunning || it.isWait } == null) {
+            _eventAllTasksCompleted.fastEventValue = _tasks.value!!
+            onAllTasksCompleted?.invoke(_tasks.value!!)
         }
     }
 
@@ -94,17 +169,24 @@ class UploadManagerData(
         _eventTaskProgressUpdate.fastValue = Event(update)
     }
 
+    // 提交任务文件的最新进度（上传线程中调用，进度会合并后在主线程中按帧分发）
+    fun postProgress(update: UploadTaskFileParameterUpdate) = progressHub.post(update)
+
     // 上传排队等待中的任务
     private fun uploadWaitTasks() {
         val quota = if (lanes < 0) null else lanes - tasks.count { it.isRunning }
         if (quota != null && quota <= 0) return
         var quantity = 0
         LOG("task uploadWaitTasks")
-        tasks.forEach {
+        ArrayList(tasks).forEach {
+            // 不满足网络条件约束的任务直接暂停，待满足后自动恢复
+            if (it.isWait && constraintController?.isSatisfied(it) == false) {
+                stop(it, TaskState.Pause, NetworkTaskStopReason.Constraint)
+                return@forEach
+            }
             if (it.isWait) {
                 it.onChangeStateToNone()
-                _eventUploadManagerNotify.fastEventValue =
-                    UploadManagerNotify(UploadManagerNotifyType.Upload, it)
+                sendManagerNotify(UploadManagerNotify(UploadManagerNotifyType.Upload, it))
                 onEventTaskUpdateByState(it)
                 quantity++
             }
@@ -115,14 +197,55 @@ class UploadManagerData(
     }
 
     /**
-     * 上传文件列表
+     * 上传文件列表（一次遍历完成校验、加入列表与下发，任务管理器指令与任务状态更新事件均只发送一次），返回加入的任务数量
      */
     @Synchronized
     fun upload(
         tasks: List<UploadTask>
-    ): Int = tasks.filter {
-        upload(it)
-    }.size
+    ): Int {
+        val addedTasks = addTasks(tasks)
+        if (addedTasks.isEmpty()) return 0
+        val uploadTasks = ArrayList<UploadTask>()
+        val notificationTasks = ArrayList<UploadTask>()
+        var runningCount = this.tasks.count { it.isRunning }
+        addedTasks.forEach { task ->
+            if (constraintController?.isSatisfied(task) == false) {
+                // 不满足网络条件约束，暂停任务，待满足后自动恢复
+                task.forceStop(TaskState.Pause, NetworkTaskStopReason.Constraint)
+                task.onTaskFailure?.invoke(task, null, null)
+                onTaskFailure?.invoke(task, null, null)
+                notificationTasks.add(task)
+            } else if (lanes <= 0 || runningCount < lanes) {
+                uploadTasks.add(task)
+                runningCount++
+            } else {
+                // 若当前上传数量超过通道数量，则超过的任务会排队等待
+                task.onChangeStateToWait()
+                notificationTasks.add(task)
+            }
+        }
+        // 批量任务只发送一次指令
+        if (uploadTasks.isNotEmpty()) {
+            sendManagerNotify(
+                UploadManagerNotify(
+                    UploadManagerNotifyType.Upload,
+                    uploadTasks.first(),
+                    uploadTasks,
+                    notificationTasks
+                )
+            )
+        } else if (notificationTasks.isNotEmpty()) {
+            sendManagerNotify(
+                UploadManagerNotify(
+                    UploadManagerNotifyType.UpdateNotification,
+                    notificationTasks.first(),
+                    notificationTasks
+                )
+            )
+        }
+        onEventTasksUpdateByState(addedTasks)
+        return addedTasks.size
+    }
 
     /**
      * 上传文件
@@ -130,15 +253,16 @@ class UploadManagerData(
     @Synchronized
     fun upload(task: UploadTask): Boolean {
         if (!addTask(task)) return false
-        if (lanes <= 0 || tasks.count { it.isRunning } < lanes) {
+        if (constraintController?.isSatisfied(task) == false) {
+            // 不满足网络条件约束，暂停任务，待满足后自动恢复
+            stop(task, TaskState.Pause, NetworkTaskStopReason.Constraint)
+        } else if (lanes <= 0 || tasks.count { it.isRunning } < lanes) {
             // 下发任务管理器上传指令
-            _eventUploadManagerNotify.fastEventValue =
-                UploadManagerNotify(UploadManagerNotifyType.Upload, task)
+            sendManagerNotify(UploadManagerNotify(UploadManagerNotifyType.Upload, task))
         } else {
             // 若当前上传数量超过通道数量，则超过的任务会排队等待
             task.onChangeStateToWait()
-            _eventUploadManagerNotify.fastEventValue =
-                UploadManagerNotify(UploadManagerNotifyType.UpdateNotification, task)
+            sendManagerNotify(UploadManagerNotify(UploadManagerNotifyType.UpdateNotification, task))
         }
         onEventTaskUpdateByState(task)
         return true
@@ -178,6 +302,43 @@ class UploadManagerData(
     }
 
 
+    /**
+     * 批量添加任务到任务列表（先建立id与上传文件路径索引，再一次遍历完成校验），返回加入的任务
+     */
+    private fun addTasks(newTasks: List<UploadTask>): List<UploadTask> {
+        val tasks = tasks
+        val indexes = HashMap<String, Int>(tasks.size + newTasks.size)
+        val usedUploadFilePaths = HashSet<String>()
+        tasks.forEachIndexed { index, it ->
+            indexes[it.id] = index
+            if (!it.isStop) usedUploadFilePaths.addAll(it.uploadFilePaths)
+        }
+        val addedTasks = ArrayList<UploadTask>(newTasks.size)
+        newTasks.forEach { task ->
+            val index = indexes[task.id]
+            val uploadFilePaths = task.uploadFilePaths
+            if (index != null) {
+                // 任务已存在
+                if (!tasks[index].isStop) {
+                    LOG("task 任务已存在 ")
+                    return@forEach
+                }
+                tasks[index] = task
+            } else {
+                // 上传的文件已被占用
+                uploadFilePaths.firstOrNull { usedUploadFilePaths.contains(it) }?.let {
+                    LOG("task 任务保存路径正在被使用 $it")
+                    return@forEach
+                }
+                indexes[task.id] = tasks.size
+                tasks.add(task)
+            }
+            usedUploadFilePaths.addAll(uploadFilePaths)
+            addedTasks.add(task)
+        }
+        return addedTasks
+    }
+
     /**
      * 删除任务
      */
@@ -250,12 +411,18 @@ class UploadManagerData(
             task.onTaskFailure?.invoke(task, null, null)
             onTaskFailure?.invoke(task, null, null)
             // 更新到通知栏
-            _eventUploadManagerNotify.fastEventValue =
-                UploadManagerNotify(UploadManagerNotifyType.UpdateNotification, task)
+            sendManagerNotify(UploadManagerNotify(UploadManagerNotifyType.UpdateNotification, task))
             onEventTaskUpdateByState(task)
         }
     }
 
+    /**
+     * 释放网络条件约束控制器（停止监听网络条件变化）
+     */
+    fun releaseConstraintController() {
+        constraintController?.release()
+    }
+
     /**
      * 更新通知栏
      */
@@ -301,8 +468,16 @@ enum class UploadManagerNotifyType {
     Upload, UpdateNotification
 }
 
-// 下发任务管理器的操作指令
+// 下发任务管理器的操作指令（批量上传时tasks包含全部任务，notificationTasks为同时需要更新通知栏的任务）
 data class UploadManagerNotify(
     val type: UploadManagerNotifyType,
-    val task: UploadTask
-)
\ No newline at end of file
+    val task: UploadTask,
+    val tasks: List<UploadTask> = listOf(task),
+    val notificationTasks: List<UploadTask> = emptyList()
+)
+
+/**
+ * 任务中需要上传的文件路径
+ */
+private val UploadTask.uploadFilePaths: List<String>
+    get() = parameters.mapNotNull { (it as? UploadTaskFileParameter)?.uploadFilePath?.takeIf { path -> path.isNotBlank() } }
\ No newline at end of file
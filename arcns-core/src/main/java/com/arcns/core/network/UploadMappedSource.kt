@@ -0,0 +1,80 @@
+package com.arcns.core.network
+
+import okio.BufferedSink
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+// 内存映射的窗口大小
+const val UPLOAD_MAPPED_WINDOW_SIZE = 8 * 1024 * 1024L
+
+/**
+ * 基于内存映射的上传源
+ * 按窗口映射文件（支持超过2GB的文件），数据直接从映射内存写入Sink，避免经过堆内ByteArray中转，
+ * 切换窗口及release时立即解除旧窗口的映射（无法解除时由系统回收），使用完毕后请调用release
+ */
+class UploadMappedSource(
+    private val channel: FileChannel,// 文件通道
+    position: Long = 0,// 开始读取的位置
+    private val windowSize: Long = UPLOAD_MAPPED_WINDOW_SIZE,// 窗口大小
+    private val limit: Long = Long.MAX_VALUE// 读取的结束位置（不包含，超过文件长度时读取到文件末尾）
+) {
+    // 当前读取的位置
+    var position: Long = position
+        private set
+
+    // 当前映射的窗口
+    private var window: MappedByteBuffer? = null
+
+    /**
+     * 写入不超过byteCount的数据到sink，返回写入的长度，若已读取完毕则返回-1
+     */
+    fun read(sink: BufferedSink, byteCount: Int): Int {
+        val size = minOf(channel.size(), limit)
+        if (position >= size) return -1
+        var buffer = window
+        if (buffer == null || !buffer.hasRemaining()) {
+            buffer?.let { unmap(it) }
+            window = null
+            buffer = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                position,
+                minOf(windowSize, size - position)
+            ).also { window = it }
+        }
+        val len = minOf(byteCount, buffer.remaining())
+        val limit = buffer.limit()
+        buffer.limit(buffer.position() + len)
+        sink.write(buffer)
+        buffer.limit(limit)
+        position += len
+        return len
+    }
+
+    /**
+     * 释放窗口
+     */
+    fun release() {
+        window?.let { unmap(it) }
+        window = null
+    }
+
+    companion object {
+        /**
+         * 解除映射（Android的DirectByteBuffer提供free方法，Java虚拟机通过cleaner释放，均不可用时由系统回收）
+         */
+        private fun unmap(buffer: ByteBuffer) {
+            try {
+                buffer.javaClass.getMethod("free").apply { isAccessible = true }.invoke(buffer)
+                return
+            } catch (e: Throwable) {
+            }
+            try {
+                val cleaner = buffer.javaClass.getMethod("cleaner").apply { isAccessible = true }
+                    .invoke(buffer) ?: return
+                cleaner.javaClass.getMethod("clean").apply { isAccessible = true }.invoke(cleaner)
+            } catch (e: Throwable) {
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.arcns.core.network
+
+/**
+ * 逐个文件上传配置
+ * 启用后每个文件参数以单独的请求上传（同时上传的数量有限），单个文件失败时按重试策略重试，不影响其他文件，
+ * 全部文件成功后再以一个提交请求上传普通参数
+ */
+class UploadPerFileOptions(
+    var parallelCount: Int = 3,// 同时上传的文件数量
+    var retryPolicy: NetworkRetryPolicy = NetworkRetryPolicy(maxAttempts = 2),// 单个文件的重试策略（退避、抖动、Retry-After及主机熔断）
+    var fileUrl: String? = null,// 文件上传地址（若为null，则使用任务的上传地址）
+    var commitUrl: String? = null,// 提交请求地址（若为null，则使用任务的上传地址）
+    var isAlwaysCommit: Boolean = true// 没有普通参数时是否仍然发送提交请求（若为false，则以最后一个文件的响应作为任务的响应）
+) {
+    // 实际同时上传的文件数量
+    val actualParallelCount: Int get() = maxOf(parallelCount, 1)
+}
@@ -38,7 +38,8 @@ open class UploadTask(
     var onUploadFileSuccess: OnUploadFileSuccess? = null,
     onTaskFailure: OnTaskFailure<UploadTask>? = null,
     onTaskSuccess: OnTaskSuccess<UploadTask>? = null,
-    extraData: Any? = null
+    extraData: Any? = null,
+    var perFileOptions: UploadPerFileOptions? = null // 逐个文件上传配置（若为null，则所有参数以一个MultipartBody上传）
 ) : NetworkTask<UploadTask>(
     url,
     notificationOptions,
@@ -140,6 +141,16 @@ open class UploadTaskFileParameter : UploadTaskBaseParameter {
     var currentProgress: NetworkTaskProgress? = null
         private set
 
+    // 最新的进度长度（由上传线程写入，在进度分发时同步到currentProgress）
+    @Volatile
+    var latestProgressCurrent: Long = -1
+        private set
+
+    // 已上传的压缩后长度（启用压缩时有效，进度中的长度为压缩前的长度）
+    @Volatile
+    var compressedLength: Long = 0
+        private set
+
     // 文件源
     private var standardSource: Source? = null
     private var breakpointResumeSource: RandomAccessFile? = null
@@ -173,6 +184,12 @@ open class UploadTaskFileParameter : UploadTaskBaseParameter {
     // 附带数据
     var extraData: Any? = null
 
+    // 分片上传配置（不为null且上传源为文件时，启用分片上传）
+    var chunkOptions: UploadChunkOptions? = null
+
+    // 上传压缩配置（不为null、服务器支持分段的Content-Encoding且MimeType符合规则时，边读取边压缩上传，断点续传及分片上传时不压缩）
+    var compressionOptions: UploadCompressionOptions? = null
+
     constructor(
         name: String,
         fileName: String,
@@ -283,13 +300,21 @@ open class UploadTaskFileParameter : UploadTaskBaseParameter {
     }
 
     /**
-     * 设置当前进度
+     * 设置当前进度（复用当前进度对象）
      */
     fun updateProgress(progress: Long): NetworkTaskProgress =
         NetworkTaskProgress(contentLength, progress).apply {
             currentProgress = this
         }
 
+    /**
+     * 写入最新进度（注意此方法通常由管理器中调用，请勿随意调用）
+     */
+    fun postProgress(progress: Long, compressedLength: Long = this.compressedLength) {
+        this.compressedLength = compressedLength
+        latestProgressCurrent = progress
+    }
+
     /**
      * 创建标准源（不支持断点续传）
      */
@@ -317,7 +342,7 @@ open class UploadTaskFileParameter : UploadTaskBaseParameter {
         breakpointResumeSource?.run { return this }
         val sourceFile = file ?: filePath?.let { File(it) }
         if (sourceFile == null || !sourceFile.exists()) return null
-        return RandomAccessFile(sourceFile, "rw").apply {
+        return RandomAccessFile(sourceFile, "r").apply {
             breakpointResumeSource = this
             if (breakpoint > 0) seek(breakpoint)
         }
@@ -331,6 +356,22 @@ open class UploadTaskFileParameter : UploadTaskBaseParameter {
                 (breakpointResumeSource != null
                         || (file ?: filePath?.let { File(it) })?.exists() == true)
 
+    /**
+     * 当前任务是否使用分片上传
+     */
+    val isChunkUpload: Boolean
+        get() = chunkOptions != null && (file ?: filePath?.let { File(it) })?.exists() == true
+
+    /**
+     * 当前任务的压缩算法，若不压缩则返回null
+     */
+    val compressionAlgorithm: UploadCompressionAlgorithm?
+        get() {
+            val options = compressionOptions ?: return null
+            if (isSupportBreakpointResume || isChunkUpload) return null
+            return if (options.isCompressible(fileMimeType, contentLength)) options.algorithm else null
+        }
+
     /**
      * 上传文件的目录
      */